@@ -0,0 +1,186 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/// Streaming ARPA reader: the `\data\` header is used to presize the storage, and the n-gram
+/// sections are handed in chunks of lines to a fork-join pool for parsing, while the next
+/// lines are read.  Progress (lines/s, bytes) is logged along the way.
+class ArpaReader {
+	static Logger logger = LogManager.getLogger(ArpaReader.class);
+
+	/// log progress every so many lines
+	static final int PROGRESS = 1 << 20;
+
+	private final ForkJoinPool pool;
+
+	/// lines per parse task
+	private final int chunk;
+
+	/// n-gram counts from the header, per order (index 0 = unigrams)
+	private int[] counts = new int [0];
+
+	/// progress: lines and chars (including line breaks) read so far
+	private long lines, chars;
+	private long start;
+
+	/// bytes read from the underlying stream, if known
+	private CountingInputStream bytes;
+
+	ArpaReader(ForkJoinPool pool, int chunk) {
+		this.pool = pool;
+		this.chunk = chunk;
+	}
+
+	/// count the bytes read from the given (raw) stream, for the progress report
+	InputStream counting(InputStream is) {
+		return bytes = new CountingInputStream(is);
+	}
+
+	List<NGramModel.NGram> read(BufferedReader br) throws IOException {
+		start = System.nanoTime();
+
+		List<ForkJoinTask<NGramModel.NGram[]>> tasks = new ArrayList<>();
+		List<String> batch = new ArrayList<>(chunk);
+
+		// canonical token instances, available once the unigrams are parsed
+		Map<String, String> vocab = null;
+
+		int section = 0;
+		String l;
+		while ((l = br.readLine()) != null) {
+			if (++lines % PROGRESS == 0)
+				progress("reading");
+			chars += l.length() + 1;
+
+			if (l.isEmpty())
+				continue;
+
+			if (l.charAt(0) == '\\') {
+				submit(batch, vocab, tasks);
+				batch = new ArrayList<>(chunk);
+
+				// done with the unigrams: intern the vocabulary for the higher orders
+				if (section == 1)
+					vocab = intern(tasks);
+
+				if (l.equals("\\end\\"))
+					break;
+				else if (l.endsWith("-grams:"))
+					section = Integer.parseInt(l.substring(1, l.indexOf('-')));
+				else
+					section = 0;
+
+				continue;
+			}
+
+			if (section == 0) {
+				if (l.startsWith("ngram ")) {
+					// header, eg. "ngram 2=22895"
+					int eq = l.indexOf('=');
+					int k = Integer.parseInt(l.substring(6, eq).trim());
+					if (k > counts.length)
+						counts = Arrays.copyOf(counts, k);
+					counts[k - 1] = Integer.parseInt(l.substring(eq + 1).trim());
+					continue;
+				} else if (l.charAt(0) != '-') {
+					// no header, no section: only accept log-probs
+					continue;
+				}
+			}
+
+			batch.add(l);
+			if (batch.size() == chunk) {
+				submit(batch, vocab, tasks);
+				batch = new ArrayList<>(chunk);
+			}
+		}
+
+		submit(batch, vocab, tasks);
+
+		// collect in file order
+		int total = 0;
+		for (int c : counts)
+			total += c;
+
+		List<NGramModel.NGram> ngrams = new ArrayList<>(total);
+		for (ForkJoinTask<NGramModel.NGram[]> t : tasks)
+			ngrams.addAll(Arrays.asList(t.join()));
+
+		progress("read");
+
+		if (counts.length > 0 && ngrams.size() != total)
+			logger.warn("Header announced " + total + " ngrams, but found " + ngrams.size());
+
+		return ngrams;
+	}
+
+	private void submit(List<String> lines, Map<String, String> vocab, List<ForkJoinTask<NGramModel.NGram[]>> tasks) {
+		if (lines.isEmpty())
+			return;
+
+		tasks.add(pool.submit(() -> {
+			NGramModel.NGram[] ngs = new NGramModel.NGram [lines.size()];
+			for (int i = 0; i < ngs.length; i++)
+				ngs[i] = NGramModel.NGram.parse(lines.get(i), vocab);
+			return ngs;
+		}));
+	}
+
+	/// wait for the unigrams parsed so far, and map each token to a single instance
+	private Map<String, String> intern(List<ForkJoinTask<NGramModel.NGram[]>> tasks) {
+		Map<String, String> vocab = new HashMap<>((counts.length > 0 ? counts[0] : 1024) * 4 / 3 + 1);
+		for (ForkJoinTask<NGramModel.NGram[]> t : tasks) {
+			for (NGramModel.NGram ng : t.join())
+				if (ng.order() == 1)
+					vocab.put(ng.token(), ng.token());
+		}
+		return vocab;
+	}
+
+	private void progress(String what) {
+		double secs = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+		logger.info(String.format("%s %d lines (%d chars%s) in %.2fs, %.0f lines/s", what, lines, chars,
+				bytes == null ? "" : ", " + bytes.count + " bytes", secs, lines / secs));
+	}
+
+	/// keeps track of the number of bytes read
+	private static class CountingInputStream extends FilterInputStream {
+		long count;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long s = super.skip(n);
+			count += s;
+			return s;
+		}
+	}
+}
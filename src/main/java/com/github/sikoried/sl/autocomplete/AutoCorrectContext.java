@@ -1,34 +1,76 @@
 package com.github.sikoried.sl.autocomplete;
 
 import com.github.sikoried.sl.autocorrect.Distances;
+import com.github.sikoried.sl.autocorrect.TopK;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.Comparator;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
+/// Context-aware correction: the candidates for the query are the successors of the history
+/// that are within `maxEdit` edits; they are ranked by LM score minus `lambda` per edit
 public class AutoCorrectContext {
-    public List<Pair<String, Double>> suggest(NGramModel model, String[] history, String query, int maxEdit, int numSuggest) {
-        // use <s> for beginning-of-sentence, no OOV allowed
+    /// log-prob penalty per edit
+    private final double lambda;
+
+    public AutoCorrectContext() {
+        this(1.0);
+    }
+
+    public AutoCorrectContext(double lambda) {
+        this.lambda = lambda;
+    }
+
+    public List<Pair<String, Double>> suggest(LanguageModel model, String[] history, String query, int maxEdit, int numSuggest) {
+        // use <s> for beginning-of-sentence
         assert history.length > 0;
-        assert model.getVocab().contains(query);
 
         List<Pair<String, Double>> li = new LinkedList<>();
 
         // exact hit, no suggestion
-        if (model.getVocab().contains(query)) {
+        if (model.contains(query)) {
             li.add(Pair.of(query, 0.0));
             return li;
         }
 
-        return model.getNgrams().stream()
-                .filter(n -> n.matchHistory(history))  // only n-grams matching the history
-                .filter(n -> Distances.edit(query, n.token()) < maxEdit)  // only words that are close enough
-                .map(n -> Pair.of(n.token(), n.logp))
-                .sorted()
-                .limit(numSuggest)
-                .collect(Collectors.toList());
+        List<String> candidates = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        TopK top = new TopK(numSuggest);
+
+        // successors of the (trimmed) history, Katz-style backing off to shorter histories only
+        // while there are fewer than numSuggest candidates
+        double bo = 0;
+        for (int from = Math.max(0, history.length - model.getOrder() + 1); from <= history.length; from++) {
+            LanguageModel.Successors succ = model.successors(history, from, history.length);
+            for (int i = 0; i < succ.size(); i++) {
+                String t = succ.token(i);
+
+                // cheap length filter first, then the banded distance
+                if (Math.abs(t.length() - query.length()) > maxEdit)
+                    continue;
+
+                int d = Distances.edit(t, query, maxEdit);
+                if (d > maxEdit || !seen.add(t))
+                    continue;
+
+                // ids are handed out in order of discovery, which breaks ties in favour of the LM
+                if (top.offer(candidates.size(), bo + succ.logp(i) - lambda * d))
+                    candidates.add(t);
+            }
+
+            if (top.isFull() || from == history.length)
+                break;
+
+            bo += model.backoff(history, from, history.length);
+        }
+
+        top.sort();
+        for (int i = 0; i < top.size(); i++)
+            li.add(Pair.of(candidates.get(top.id(i)), top.score(i)));
+
+        return li;
     }
 }
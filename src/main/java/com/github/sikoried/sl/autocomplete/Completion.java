@@ -0,0 +1,114 @@
+package com.github.sikoried.sl.autocomplete;
+
+import com.github.sikoried.sl.autocorrect.TopK;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// Completion of a partially typed word after a fixed history, as in a typing UI.  The
+/// successors of the history are searched in lexical order (see LanguageModel.Lexical), where
+/// all tokens with a given prefix form a contiguous range.  The session is incremental: as long
+/// as the new prefix extends the previous one, the range is narrowed by binary search within the
+/// previous range instead of starting over; the best n of the range are picked with a heap.
+///
+/// If no successor of the (trimmed) history starts with the prefix, the session falls back to
+/// the next shorter history, as Generator.complete does.
+public class Completion {
+	static Logger logger = LogManager.getLogger(Completion.class);
+
+	private final LanguageModel model;
+	private final String[] history;
+
+	/// current history window history[from..), its successors and the range matching the prefix
+	private int from;
+	private LanguageModel.Lexical succ;
+	private int lo, hi;
+	private String prefix;
+
+	public Completion(LanguageModel model, String[] history) {
+		this.model = model;
+		this.history = history;
+		reset();
+	}
+
+	/// start over with an empty prefix
+	public void reset() {
+		from = Math.max(0, history.length - model.getOrder() + 1);
+		succ = model.lexical(history, from, history.length);
+		lo = 0;
+		hi = succ.size();
+		prefix = "";
+	}
+
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/// number of tokens matching the current prefix
+	public int size() {
+		return hi - lo;
+	}
+
+	/// append a keystroke to the prefix and offer the `n` best completions
+	public List<Pair<String, Double>> type(char c, int n) {
+		return complete(prefix + c, n);
+	}
+
+	/// offer the `n` best completions of the given prefix; if it does not extend the previous
+	/// prefix (eg. after a backspace), the session starts over
+	public List<Pair<String, Double>> complete(String prefix, int n) {
+		if (!prefix.startsWith(this.prefix))
+			reset();
+
+		narrow(prefix);
+
+		TopK top = new TopK(Math.min(n, hi - lo));
+		for (int i = lo; i < hi; i++)
+			top.offer(i, succ.logp(i));
+		top.sort();
+
+		List<Pair<String, Double>> suggestions = new ArrayList<>(top.size());
+		for (int i = 0; i < top.size(); i++)
+			suggestions.add(Pair.of(succ.token(top.id(i)), top.score(i)));
+
+		return suggestions;
+	}
+
+	/// narrow [lo, hi) to the tokens starting with p; back off while there are none
+	private void narrow(String p) {
+		prefix = p;
+		while (true) {
+			lo = bound(p, lo, hi, false);
+			hi = bound(p, lo, hi, true);
+
+			if (lo < hi || from == history.length)
+				return;
+
+			// a longer prefix can only match less, so the session never needs to go back up
+			from++;
+			succ = model.lexical(history, from, history.length);
+			lo = 0;
+			hi = succ.size();
+
+			if (logger.isDebugEnabled())
+				logger.debug("falling back to " + Arrays.toString(Arrays.copyOfRange(history, from, history.length)));
+		}
+	}
+
+	/// first index in [lo, hi) whose token is not before the prefix range (upper: not in it)
+	private int bound(String p, int lo, int hi, boolean upper) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = succ.comparePrefix(mid, p);
+			if (c < 0 || (upper && c == 0))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+}
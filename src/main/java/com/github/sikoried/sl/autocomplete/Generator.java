@@ -4,40 +4,42 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class Generator {
     static Logger logger = LogManager.getLogger(Generator.class);
 
     /// Offer `n` suggestions on how to complete the given history
-    static List<Pair<String, Double>> complete(NGramModel model, String[] w, int n) {
-        logger.info("completing " + Arrays.toString(w));
-
-        final int order = model.getOrder();
-        final List<NGramModel.NGram> ngrams = model.getNgrams();
-
-        // trim the history to min(len, order-1) since it will lead to misses
-        if (w.length > order - 1)
-            return complete(model, Arrays.copyOfRange(w, w.length - order + 1, w.length), n);
-
-        List<Pair<String, Double>> suggestions = ngrams.stream()
-                .filter(ng -> ng.w.length == w.length + 1)
-                .filter(ng -> ng.startsWith(w))
-                .sorted(Comparator.comparingDouble(NGramModel.NGram::getLogp).reversed())
-                .limit(n)
-                .map(ng -> Pair.of(ng.token(), ng.logp))
-                .collect(Collectors.toList());
-
-        // poop.
-        if (suggestions.size() == 0) {
-            String[] shorter = Arrays.copyOfRange(w, 1, w.length);
-            logger.info("falling back to " + Arrays.toString(shorter));
-            suggestions = complete(model, shorter, n);
+    static List<Pair<String, Double>> complete(LanguageModel model, String[] w, int n) {
+        if (logger.isDebugEnabled())
+            logger.debug("completing " + Arrays.toString(w));
+
+        // trim the history to min(len, order-1) since it will lead to misses; if that history
+        // has no successors, fall back to the next shorter one (no copies, just a window on w)
+        LanguageModel.Successors succ = LanguageModel.NONE;
+        for (int from = Math.max(0, w.length - model.getOrder() + 1); from <= w.length; from++) {
+            succ = model.successors(w, from, w.length);
+            if (succ.size() > 0)
+                break;
+
+            if (logger.isDebugEnabled())
+                logger.debug("falling back to " + Arrays.toString(Arrays.copyOfRange(w, from + 1, w.length)));
         }
 
+        // successors are pre-sorted by logp at load time, so the best n are a prefix
+        final int k = Math.min(n, succ.size());
+        List<Pair<String, Double>> suggestions = new ArrayList<>(k);
+        for (int i = 0; i < k; i++)
+            suggestions.add(Pair.of(succ.token(i), succ.logp(i)));
+
         return suggestions;
     }
+
+    /// Offer `n` completions of the partially typed token `prefix` after the history; for
+    /// completion while typing, keep a Completion session instead
+    static List<Pair<String, Double>> complete(LanguageModel model, String[] w, String prefix, int n) {
+        return new Completion(model, w).complete(prefix, n);
+    }
 }
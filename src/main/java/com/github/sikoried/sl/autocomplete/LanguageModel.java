@@ -0,0 +1,122 @@
+package com.github.sikoried.sl.autocomplete;
+
+import java.util.Arrays;
+
+/// The query surface shared by the n-gram model backends (see NGramModel, PackedNGramModel)
+public interface LanguageModel {
+	/// successors of a history, best (highest logp) first
+	interface Successors {
+		int size();
+
+		String token(int i);
+
+		double logp(int i);
+	}
+
+	/// successors of a history in lexical order of their tokens, so that all tokens with a
+	/// common prefix form a contiguous range (see Completion)
+	interface Lexical extends Successors {
+		/// 0 if token(i) starts with p, otherwise the sign of token(i).compareTo(p)
+		default int comparePrefix(int i, String p) {
+			String t = token(i);
+			return t.startsWith(p) ? 0 : t.compareTo(p);
+		}
+	}
+
+	Lexical NONE = new Lexical() {
+		public int size() { return 0; }
+		public String token(int i) { throw new IndexOutOfBoundsException(); }
+		public double logp(int i) { throw new IndexOutOfBoundsException(); }
+	};
+
+	int getOrder();
+
+	/// is the token part of the vocabulary (ie. a unigram)?
+	boolean contains(String token);
+
+	/// all n-grams with exactly the history w[from..to), best first; empty if the history was never seen
+	Successors successors(String[] w, int from, int to);
+
+	/// all n-grams with exactly the history w, best first
+	default Successors successors(String[] w) {
+		return successors(w, 0, w.length);
+	}
+
+	/// all n-grams with exactly the history w[from..to), in lexical order of their tokens
+	Lexical lexical(String[] w, int from, int to);
+
+	/// log-prob of the n-gram w[from..to), or NaN if it is not in the model
+	double ngramLogp(String[] w, int from, int to);
+
+	/// backoff weight (log) of the n-gram w[from..to), or 0 if it has none
+	double backoff(String[] w, int from, int to);
+
+	/// Katz backoff: log P(w[i] | w[i-order+1..i)); -Infinity if w[i] is OOV
+	default double logProb(String[] w, int i) {
+		double bo = 0;
+		for (int from = Math.max(0, i - getOrder() + 1); from <= i; from++) {
+			double p = ngramLogp(w, from, i + 1);
+			if (!Double.isNaN(p))
+				return bo + p;
+
+			// back off to the next shorter history
+			if (from < i)
+				bo += backoff(w, from, i);
+		}
+
+		return Double.NEGATIVE_INFINITY;
+	}
+
+	/// Katz backoff: log P(token | history)
+	default double logProb(String[] history, String token) {
+		String[] w = Arrays.copyOf(history, history.length + 1);
+		w[history.length] = token;
+		return logProb(w, history.length);
+	}
+
+	/// Katz backoff for many candidate tokens after the same history; the backoff weights are
+	/// looked up only once, so each token costs at most `order` n-gram lookups
+	default double[] logProb(String[] history, String[] tokens) {
+		final int h = history.length;
+		final int from0 = Math.max(0, h - getOrder() + 1);
+
+		// accumulated backoff when falling back to history[from..h)
+		double[] bo = new double [h - from0 + 1];
+		for (int from = from0; from < h; from++)
+			bo[from - from0 + 1] = bo[from - from0] + backoff(history, from, h);
+
+		String[] w = Arrays.copyOf(history, h + 1);
+		double[] scores = new double [tokens.length];
+		for (int t = 0; t < tokens.length; t++) {
+			w[h] = tokens[t];
+			scores[t] = Double.NEGATIVE_INFINITY;
+			for (int from = from0; from <= h; from++) {
+				double p = ngramLogp(w, from, h + 1);
+				if (!Double.isNaN(p)) {
+					scores[t] = bo[from - from0] + p;
+					break;
+				}
+			}
+		}
+
+		return scores;
+	}
+
+	/// log-prob of a whole sentence; <s> and </s> are added if missing, <s> itself is not scored
+	default double sentenceLogProb(String[] sentence) {
+		int n = sentence.length;
+		boolean bos = n > 0 && sentence[0].equals("<s>");
+		boolean eos = n > 0 && sentence[n - 1].equals("</s>");
+
+		String[] w = new String [n + (bos ? 0 : 1) + (eos ? 0 : 1)];
+		w[0] = "<s>";
+		System.arraycopy(sentence, 0, w, bos ? 0 : 1, n);
+		w[w.length - 1] = "</s>";
+
+		double lp = 0;
+		for (int i = 1; i < w.length; i++)
+			lp += logProb(w, i);
+
+		return lp;
+	}
+}
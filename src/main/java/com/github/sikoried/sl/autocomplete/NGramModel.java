@@ -4,10 +4,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
-public class NGramModel {
+public class NGramModel implements LanguageModel {
 	static Logger logger = LogManager.getLogger(NGramModel.class);
 
 	public static class NGram {
@@ -32,14 +36,35 @@ public class NGramModel {
 
 		/// factory function; expects arpa-style ngram line
 		static NGram parse(String line) {
-			String[] xs = line.split("\t");
-			double logp = Double.parseDouble(xs[0]);
-			String[] w= xs[1].split(" ");
+			return parse(line, null);
+		}
 
-			if (xs.length == 3)
-				return new NGram(w, logp, Double.parseDouble(xs[2]));
-			else
+		/// factory function; expects arpa-style ngram line "logp<TAB>w1 w2 ...[<TAB>backoff]";
+		/// tokens are replaced by their canonical instance in vocab, if available
+		static NGram parse(String line, Map<String, String> vocab) {
+			int t1 = line.indexOf('\t');
+			int t2 = line.indexOf('\t', t1 + 1);
+			int end = (t2 < 0 ? line.length() : t2);
+
+			double logp = Double.parseDouble(line.substring(0, t1));
+
+			int n = 1;
+			for (int i = t1 + 1; i < end; i++)
+				if (line.charAt(i) == ' ')
+					n++;
+
+			String[] w = new String [n];
+			for (int i = 0, b = t1 + 1; i < n; i++) {
+				int e = (i < n - 1 ? line.indexOf(' ', b) : end);
+				String t = line.substring(b, e);
+				w[i] = (vocab == null ? t : vocab.getOrDefault(t, t));
+				b = e + 1;
+			}
+
+			if (t2 < 0)
 				return new NGram(w, logp);
+			else
+				return new NGram(w, logp, Double.parseDouble(line.substring(t2 + 1)));
 		}
 
 		double getLogp() {
@@ -134,36 +159,166 @@ public class NGramModel {
 	private List<NGram> ngrams;
 	private Set<String> vocab;
 
+	/// history (joined by blanks, "" for unigrams) to successors, sorted by logp descending
+	private Map<String, NGram[]> successors;
+
+	/// same histories, successors sorted by token (for prefix completion)
+	private Map<String, NGram[]> lexical;
+
+	/// all n-grams (joined by blanks)
+	private Map<String, NGram> lookup;
+
+	private static final NGram[] EMPTY = new NGram[0];
+
 	private NGramModel(List<NGram> ngrams, int order) {
 		this.ngrams = ngrams;
 		this.order = order;
+		this.successors = index(ngrams);
+		this.lexical = lexical(successors);
+		this.lookup = new HashMap<>(ngrams.size() * 4 / 3 + 1);
+		this.vocab = new HashSet<>();
+
+		for (NGram n : ngrams) {
+			if (n.w.length == 1)
+				vocab.add(n.w[0]);
+			lookup.putIfAbsent(key(n.w, 0, n.w.length), n);
+		}
+	}
+
+	/// view on a successor array
+	private static class Ranked implements Successors {
+		final NGram[] succ;
+
+		Ranked(NGram[] succ) {
+			this.succ = succ;
+		}
 
-//		for (NGram n : ngrams) {
-//			if (n.w.length == 1)
-//				vocab.add(n.w[0]);
-//		}
+		public int size() { return succ.length; }
+		public String token(int i) { return succ[i].token(); }
+		public double logp(int i) { return succ[i].logp; }
+	}
+
+	/// view on a successor array sorted by token
+	private static class Sorted extends Ranked implements Lexical {
+		Sorted(NGram[] succ) {
+			super(succ);
+		}
 	}
 
 	List<NGram> getNgrams() { return ngrams; }
 	Set<String> getVocab() { return vocab; }
-	int getOrder() { return order; }
+	public int getOrder() { return order; }
+
+	public boolean contains(String token) {
+		return vocab.contains(token);
+	}
+
+	public Successors successors(String[] w, int from, int to) {
+		NGram[] succ = successors.get(key(w, from, to));
+		return succ == null ? NONE : new Ranked(succ);
+	}
+
+	public Lexical lexical(String[] w, int from, int to) {
+		NGram[] succ = lexical.get(key(w, from, to));
+		return succ == null ? NONE : new Sorted(succ);
+	}
+
+	public double ngramLogp(String[] w, int from, int to) {
+		NGram ng = lookup.get(key(w, from, to));
+		return ng == null ? Double.NaN : ng.logp;
+	}
+
+	public double backoff(String[] w, int from, int to) {
+		NGram ng = lookup.get(key(w, from, to));
+		return ng == null || !ng.hasBackoff() ? 0. : ng.backoff;
+	}
+
+	/// the successor n-grams themselves, best first
+	NGram[] successorNgrams(String[] w) {
+		return successors.getOrDefault(key(w, 0, w.length), EMPTY);
+	}
+
+	/// hash key of w[from..to)
+	static String key(String[] w, int from, int to) {
+		if (to - from == 1)
+			return w[from];
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			if (i > from)
+				sb.append(' ');
+			sb.append(w[i]);
+		}
+		return sb.toString();
+	}
+
+	/// group the n-grams by their history; sorting is stable, so ties keep file order
+	private static Map<String, NGram[]> index(List<NGram> ngrams) {
+		Map<String, List<NGram>> groups = new HashMap<>();
+		for (NGram ng : ngrams)
+			groups.computeIfAbsent(key(ng.w, 0, ng.w.length - 1), k -> new ArrayList<>()).add(ng);
+
+		Map<String, NGram[]> index = new HashMap<>(groups.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<NGram>> e : groups.entrySet()) {
+			NGram[] succ = e.getValue().toArray(EMPTY);
+			Arrays.sort(succ, Comparator.comparingDouble(NGram::getLogp).reversed());
+			index.put(e.getKey(), succ);
+		}
+
+		return index;
+	}
+
+	/// the same successors, sorted by token; the ranked arrays are left untouched
+	private static Map<String, NGram[]> lexical(Map<String, NGram[]> index) {
+		Map<String, NGram[]> lexical = new HashMap<>(index.size() * 4 / 3 + 1);
+		for (Map.Entry<String, NGram[]> e : index.entrySet()) {
+			NGram[] succ = e.getValue().clone();
+			Arrays.sort(succ, Comparator.comparing(NGram::token));
+			lexical.put(e.getKey(), succ);
+		}
+
+		return lexical;
+	}
+
+	/// lines per parse task when reading ARPA files
+	static final int ARPA_CHUNK = 16384;
 
 	static NGramModel fromArpa(BufferedReader model) throws IOException {
-		String l;
-		List<NGram> ngrams = new LinkedList<>();
-		int order = 0;
-		while ((l = model.readLine()) != null) {
-			if (l.startsWith("-")) {
-				NGram ng = NGram.parse(l);
-				if (ng.order() > order)
-					order = ng.order();
+		return fromArpa(model, ForkJoinPool.commonPool());
+	}
 
-				ngrams.add(ng);
-			}
+	/// read an ARPA model, parsing the n-gram sections in parallel on the given pool
+	static NGramModel fromArpa(BufferedReader model, ForkJoinPool pool) throws IOException {
+		return fromArpa(model, new ArpaReader(pool, ARPA_CHUNK));
+	}
+
+	/// read an ARPA file (gzipped if it ends in .gz)
+	static NGramModel fromArpa(File file) throws IOException {
+		ArpaReader reader = new ArpaReader(ForkJoinPool.commonPool(), ARPA_CHUNK);
+		InputStream is = reader.counting(new FileInputStream(file));
+		if (file.getName().endsWith(".gz"))
+			is = new GZIPInputStream(is, 1 << 16);
+
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16)) {
+			return fromArpa(br, reader);
 		}
+	}
+
+	private static NGramModel fromArpa(BufferedReader model, ArpaReader reader) throws IOException {
+		List<NGram> ngrams = reader.read(model);
+
+		int order = 0;
+		for (NGram ng : ngrams)
+			order = Math.max(order, ng.order());
 
-		logger.info("Read " + ngrams.size() + " ngrams (order=" + order + ")");
+		logger.info("Read " + ngrams.size() + " ngrams (order=" + order + "), indexing histories");
 
 		return new NGramModel(ngrams, order);
 	}
+
+	/// memory-map a binary model compiled by PackedNGramModel; it is queried in place, so startup
+	/// is (nearly) constant time and the pages are shared by all processes mapping the same file
+	static LanguageModel fromMapped(Path file) throws IOException {
+		return PackedNGramModel.map(file);
+	}
 }
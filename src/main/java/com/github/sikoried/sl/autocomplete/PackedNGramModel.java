@@ -0,0 +1,529 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/// Compact n-gram model, packed as a trie of sorted primitive arrays (cf. KenLM, BerkeleyLM).
+/// The vocabulary is interned to int IDs in lexical order, so that the unigram of word i is
+/// entry i on level 0.  Level l holds the (l+1)-grams; the children of entry i on level l
+/// are the contiguous range [next[l][i], next[l][i+1]) on level l+1, sorted by word ID.
+///
+/// All arrays are held as NIO buffers, so that the same model can either live on the heap
+/// (see `pack`) or be queried in place from a memory-mapped binary file (see `write`, `map`).
+public class PackedNGramModel implements LanguageModel {
+	static Logger logger = LogManager.getLogger(PackedNGramModel.class);
+
+	/// binary format: magic, version, order, vocab size, number of chars, counts per order
+	private static final int MAGIC = 0x4e47524d;  // "NGRM"
+	private static final int VERSION = 1;
+
+	/// vocabulary arena: word i is chars[offsets[i]..offsets[i+1]); sorted, the index is the word ID
+	private final IntBuffer offsets;
+	private final CharBuffer chars;
+
+	/// per level: word ID of the last token
+	private final IntBuffer[] word;
+
+	/// per level: log-prob
+	private final FloatBuffer[] logp;
+
+	/// per level but the last: backoff (0 if none)
+	private final FloatBuffer[] backoff;
+
+	/// per level but the last: children of i are [next[l][i], next[l][i+1]) on level l+1
+	private final IntBuffer[] next;
+
+	/// per level: entries of each child range, reordered by logp descending
+	private final IntBuffer[] rank;
+
+	private PackedNGramModel(IntBuffer offsets, CharBuffer chars, int order) {
+		this.offsets = offsets;
+		this.chars = chars;
+		this.word = new IntBuffer [order];
+		this.logp = new FloatBuffer [order];
+		this.backoff = new FloatBuffer [order - 1];
+		this.next = new IntBuffer [order - 1];
+		this.rank = new IntBuffer [order];
+	}
+
+	/// view on a ranked child range
+	private class Range implements Successors {
+		final int level, lo, hi;
+
+		Range(int level, int lo, int hi) {
+			this.level = level;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		public int size() { return hi - lo; }
+		public String token(int i) { return word(word[level].get(rank[level].get(lo + i))); }
+		public double logp(int i) { return logp[level].get(rank[level].get(lo + i)); }
+	}
+
+	/// view on a child range in index order, ie. by word ID, which is lexical
+	private class Children implements Lexical {
+		final int level, lo, hi;
+
+		Children(int level, int lo, int hi) {
+			this.level = level;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		public int size() { return hi - lo; }
+		public String token(int i) { return word(word[level].get(lo + i)); }
+		public double logp(int i) { return logp[level].get(lo + i); }
+
+		/// compare in place, without materializing the token
+		public int comparePrefix(int i, String p) {
+			int id = word[level].get(lo + i);
+			int o = offsets.get(id), e = offsets.get(id + 1);
+			int n = Math.min(e - o, p.length());
+			for (int k = 0; k < n; k++) {
+				char c = chars.get(o + k);
+				if (c != p.charAt(k))
+					return c - p.charAt(k);
+			}
+			return (e - o) < p.length() ? -1 : 0;
+		}
+	}
+
+	public int getOrder() {
+		return word.length;
+	}
+
+	public boolean contains(String token) {
+		return id(token) >= 0;
+	}
+
+	public Successors successors(String[] w, int from, int to) {
+		final int h = to - from;
+		if (h == 0)
+			return new Range(0, 0, vocabSize());
+
+		if (h >= getOrder())
+			return NONE;
+
+		int i = find(w, from, to);
+		if (i < 0)
+			return NONE;
+
+		int lo = next[h - 1].get(i), hi = next[h - 1].get(i + 1);
+		return lo == hi ? NONE : new Range(h, lo, hi);
+	}
+
+	public Lexical lexical(String[] w, int from, int to) {
+		final int h = to - from;
+		if (h == 0)
+			return new Children(0, 0, vocabSize());
+
+		if (h >= getOrder())
+			return NONE;
+
+		int i = find(w, from, to);
+		if (i < 0)
+			return NONE;
+
+		int lo = next[h - 1].get(i), hi = next[h - 1].get(i + 1);
+		return lo == hi ? NONE : new Children(h, lo, hi);
+	}
+
+	public double ngramLogp(String[] w, int from, int to) {
+		if (to - from > getOrder())
+			return Double.NaN;
+
+		int i = find(w, from, to);
+		return i < 0 ? Double.NaN : logp[to - from - 1].get(i);
+	}
+
+	public double backoff(String[] w, int from, int to) {
+		if (to - from >= getOrder())
+			return 0.;
+
+		int i = find(w, from, to);
+		return i < 0 ? 0. : backoff[to - from - 1].get(i);
+	}
+
+	int vocabSize() {
+		return offsets.limit() - 1;
+	}
+
+	/// the word with the given ID
+	String word(int id) {
+		int o = offsets.get(id), e = offsets.get(id + 1);
+		char[] cs = new char [e - o];
+		for (int k = 0; k < cs.length; k++)
+			cs[k] = chars.get(o + k);
+		return new String(cs);
+	}
+
+	/// compares word `id` to s, in the order of String.compareTo
+	private int compare(int id, String s) {
+		int o = offsets.get(id), e = offsets.get(id + 1);
+		int n = Math.min(e - o, s.length());
+		for (int k = 0; k < n; k++) {
+			char c = chars.get(o + k);
+			if (c != s.charAt(k))
+				return c - s.charAt(k);
+		}
+		return (e - o) - s.length();
+	}
+
+	/// word ID, or -1 if OOV
+	int id(String token) {
+		int lo = 0, hi = vocabSize() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(mid, token);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+
+		return -1;
+	}
+
+	/// index of w[from..to) on level to-from-1, or -1 if not in the model
+	int find(String[] w, int from, int to) {
+		int i = id(w[from]);
+		for (int l = 1; i >= 0 && l < to - from; l++)
+			i = child(l - 1, i, id(w[from + l]));
+		return i;
+	}
+
+	/// binary search for word v among the children of entry i on level l
+	private int child(int l, int i, int v) {
+		if (v < 0)
+			return -1;
+
+		final IntBuffer ws = word[l + 1];
+		int lo = next[l].get(i), hi = next[l].get(i + 1) - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int x = ws.get(mid);
+			if (x < v)
+				lo = mid + 1;
+			else if (x > v)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+
+		return -1;
+	}
+
+	/// number of n-grams over all orders
+	long size() {
+		long n = 0;
+		for (IntBuffer ws : word)
+			n += ws.limit();
+		return n;
+	}
+
+	/// size of the packed arrays (including the vocabulary) in bytes
+	long bytes() {
+		long b = 4L * offsets.limit() + 2L * chars.limit();
+		for (int l = 0; l < word.length; l++) {
+			b += 4L * (word[l].limit() + logp[l].limit() + rank[l].limit());
+			if (l < next.length)
+				b += 4L * (backoff[l].limit() + next[l].limit());
+		}
+		return b;
+	}
+
+	static PackedNGramModel fromArpa(BufferedReader model) throws IOException {
+		return pack(NGramModel.fromArpa(model));
+	}
+
+	/// pack the given model; ties in logp keep the file order, as in NGramModel
+	static PackedNGramModel pack(NGramModel model) {
+		final int order = model.getOrder();
+
+		// split by order, keeping file order
+		List<List<NGramModel.NGram>> byOrder = new ArrayList<>();
+		for (int l = 0; l < order; l++)
+			byOrder.add(new ArrayList<>());
+		for (NGramModel.NGram ng : model.getNgrams())
+			byOrder.get(ng.order() - 1).add(ng);
+
+		String[] vocab = byOrder.get(0).stream()
+				.map(NGramModel.NGram::token)
+				.sorted()
+				.distinct()
+				.toArray(String[]::new);
+
+		// vocabulary arena
+		int[] offsets = new int [vocab.length + 1];
+		for (int i = 0; i < vocab.length; i++)
+			offsets[i + 1] = offsets[i] + vocab[i].length();
+		char[] chars = new char [offsets[vocab.length]];
+		for (int i = 0; i < vocab.length; i++)
+			vocab[i].getChars(0, vocab[i].length(), chars, offsets[i]);
+
+		PackedNGramModel packed = new PackedNGramModel(IntBuffer.wrap(offsets), CharBuffer.wrap(chars), order);
+
+		int skipped = 0;
+		for (int l = 0; l < order; l++) {
+			List<NGramModel.NGram> ngrams = byOrder.get(l);
+
+			// (parent, word) keys; unigrams are their own word IDs
+			long[] keys = new long [ngrams.size()];
+			int[] src = new int [ngrams.size()];
+			int n = 0;
+			for (int j = 0; j < ngrams.size(); j++) {
+				NGramModel.NGram ng = ngrams.get(j);
+				int p = (l == 0 ? 0 : packed.find(ng.w, 0, l));
+				int v = packed.id(ng.token());
+				if (p < 0 || v < 0) {
+					skipped++;
+					continue;
+				}
+				src[n] = j;
+				keys[n++] = ((long) p << 32) | v;
+			}
+
+			long[] sorted = Arrays.stream(keys, 0, n).sorted().distinct().toArray();
+
+			int[] word = new int [sorted.length];
+			float[] logp = new float [sorted.length];
+			float[] backoff = new float [l < order - 1 ? sorted.length : 0];
+
+			// file position of each entry, for stable tie-breaking
+			int[] origin = new int [sorted.length];
+			Arrays.fill(origin, -1);
+
+			for (int k = 0; k < n; k++) {
+				NGramModel.NGram ng = ngrams.get(src[k]);
+				int i = Arrays.binarySearch(sorted, keys[k]);
+
+				// duplicates: first one wins
+				if (origin[i] >= 0) {
+					skipped++;
+					continue;
+				}
+
+				word[i] = (int) sorted[i];
+				logp[i] = (float) ng.logp;
+				if (l < order - 1 && ng.hasBackoff())
+					backoff[i] = (float) (double) ng.backoff;
+				origin[i] = src[k];
+			}
+
+			packed.word[l] = IntBuffer.wrap(word);
+			packed.logp[l] = FloatBuffer.wrap(logp);
+			if (l < order - 1)
+				packed.backoff[l] = FloatBuffer.wrap(backoff);
+
+			// children ranges of the previous level
+			int[] bounds = {0, sorted.length};
+			if (l > 0) {
+				bounds = new int [packed.word[l - 1].limit() + 1];
+				for (long key : sorted)
+					bounds[(int) (key >>> 32) + 1]++;
+				for (int i = 1; i < bounds.length; i++)
+					bounds[i] += bounds[i - 1];
+				packed.next[l - 1] = IntBuffer.wrap(bounds);
+			}
+
+			packed.rank[l] = IntBuffer.wrap(rank(logp, origin, ngrams.size(), bounds));
+		}
+
+		if (skipped > 0)
+			logger.warn("Skipped " + skipped + " duplicate n-grams or n-grams with unknown history");
+
+		logger.info("Packed " + packed.size() + " ngrams (order=" + order + ") into " + packed.bytes()
+				+ " bytes (" + (packed.bytes() / Math.max(1, packed.size())) + " bytes/ngram)");
+
+		return packed;
+	}
+
+	/// sort each range [bounds[i], bounds[i+1]) by logp descending, then by origin (< m)
+	private static int[] rank(float[] logp, int[] origin, int m, int[] bounds) {
+		int[] rank = new int [logp.length];
+
+		// origins are unique, so they can be mapped back to the entry
+		int[] at = new int [m];
+		for (int i = 0; i < origin.length; i++)
+			at[origin[i]] = i;
+
+		for (int b = 0; b < bounds.length - 1; b++) {
+			int lo = bounds[b], hi = bounds[b + 1];
+			if (hi - lo < 2) {
+				if (hi > lo)
+					rank[lo] = lo;
+				continue;
+			}
+
+			// high word: order-preserving bits of -logp; low word: origin
+			long[] keys = new long [hi - lo];
+			for (int i = lo; i < hi; i++)
+				keys[i - lo] = ((long) sortable(-logp[i]) << 32) | origin[i];
+			Arrays.sort(keys);
+
+			for (int i = lo; i < hi; i++)
+				rank[i] = at[(int) keys[i - lo]];
+		}
+
+		return rank;
+	}
+
+	/// float bits as int, such that the int order matches the float order
+	private static int sortable(float f) {
+		int b = Float.floatToIntBits(f);
+		return b ^ ((b >> 31) & 0x7fffffff);
+	}
+
+	/// write the model in the binary (little-endian) format read by `map`
+	void write(Path file) throws IOException {
+		final int order = getOrder();
+
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = section(4 * (5 + order));
+			header.putInt(MAGIC).putInt(VERSION).putInt(order).putInt(vocabSize()).putInt(chars.limit());
+			for (IntBuffer ws : word)
+				header.putInt(ws.limit());
+			write(ch, header);
+
+			write(ch, offsets);
+
+			ByteBuffer bb = section(padded(2L * chars.limit()));
+			bb.asCharBuffer().put(dup(chars));
+			write(ch, bb);
+
+			for (int l = 0; l < order; l++) {
+				write(ch, word[l]);
+				write(ch, logp[l]);
+
+				if (l < order - 1) {
+					write(ch, backoff[l]);
+					write(ch, next[l]);
+				}
+
+				write(ch, rank[l]);
+			}
+		}
+	}
+
+	/// memory-map a binary model; the arrays are queried in place, nothing is deserialized
+	static PackedNGramModel map(Path file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = section(4 * 5);
+			read(ch, header, 0);
+
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException(file + " is not a binary n-gram model (version " + VERSION + ")");
+
+			final int order = header.getInt(8);
+			final int nv = header.getInt(12);
+			final int nc = header.getInt(16);
+
+			ByteBuffer counts = section(4 * order);
+			read(ch, counts, header.capacity());
+
+			long pos = header.capacity() + counts.capacity();
+
+			IntBuffer offsets = map(ch, pos, 4L * (nv + 1)).asIntBuffer();
+			pos += 4L * (nv + 1);
+
+			CharBuffer chars = map(ch, pos, 2L * nc).asCharBuffer();
+			pos += padded(2L * nc);
+
+			PackedNGramModel packed = new PackedNGramModel(offsets, chars, order);
+			for (int l = 0; l < order; l++) {
+				int n = counts.getInt(4 * l);
+
+				packed.word[l] = map(ch, pos, 4L * n).asIntBuffer();
+				pos += 4L * n;
+				packed.logp[l] = map(ch, pos, 4L * n).asFloatBuffer();
+				pos += 4L * n;
+
+				if (l < order - 1) {
+					packed.backoff[l] = map(ch, pos, 4L * n).asFloatBuffer();
+					pos += 4L * n;
+					packed.next[l] = map(ch, pos, 4L * (n + 1)).asIntBuffer();
+					pos += 4L * (n + 1);
+				}
+
+				packed.rank[l] = map(ch, pos, 4L * n).asIntBuffer();
+				pos += 4L * n;
+			}
+
+			if (pos != ch.size())
+				throw new IOException(file + " is truncated or corrupt");
+
+			logger.info("Mapped " + packed.size() + " ngrams (order=" + order + ") from " + file);
+
+			return packed;
+		}
+	}
+
+	/// the sections are mapped individually, so that each may be up to 2G
+	private static ByteBuffer map(FileChannel ch, long pos, long size) throws IOException {
+		return ch.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer section(long size) {
+		return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/// keep the sections 4-byte aligned
+	private static long padded(long size) {
+		return (size + 3) & ~3L;
+	}
+
+	private static CharBuffer dup(CharBuffer b) {
+		CharBuffer d = b.duplicate();
+		d.clear();
+		return d;
+	}
+
+	private static void write(FileChannel ch, IntBuffer b) throws IOException {
+		ByteBuffer bb = section(4L * b.limit());
+		for (int i = 0; i < b.limit(); i++)
+			bb.putInt(b.get(i));
+		write(ch, bb);
+	}
+
+	private static void write(FileChannel ch, FloatBuffer b) throws IOException {
+		ByteBuffer bb = section(4L * b.limit());
+		for (int i = 0; i < b.limit(); i++)
+			bb.putFloat(b.get(i));
+		write(ch, bb);
+	}
+
+	private static void write(FileChannel ch, ByteBuffer bb) throws IOException {
+		bb.rewind();
+		while (bb.hasRemaining())
+			ch.write(bb);
+	}
+
+	private static void read(FileChannel ch, ByteBuffer bb, long pos) throws IOException {
+		while (bb.hasRemaining()) {
+			if (ch.read(bb, pos + bb.position()) < 0)
+				throw new EOFException();
+		}
+	}
+
+	/// Compile an ARPA file (optionally gzipped) to the binary format
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: PackedNGramModel in.arpa[.gz] out.bin");
+			System.exit(1);
+		}
+
+		pack(NGramModel.fromArpa(new File(args[0]))).write(Paths.get(args[1]));
+	}
+}
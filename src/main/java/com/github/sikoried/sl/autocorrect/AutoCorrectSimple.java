@@ -5,14 +5,249 @@ import org.apache.commons.lang3.tuple.Triple;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.stream.IntStream;
 
 public class AutoCorrectSimple {
-	private Map<String, Double> logpw;
+	/** max edits supported by the deletion index; larger m fall back to a full scan */
+	public static final int INDEX_EDITS = 2;
+
+	/** leading characters of each word to index (cf. SymSpell) */
+	public static final int INDEX_PREFIX = 7;
+
+	/** minimum number of words per shard when scoring in parallel */
+	public static final int SHARD_MIN = 4096;
+
+	/** default number of cached suggestion lists */
+	public static final int CACHE_SIZE = 4096;
+
+	/** the word ID is the position in the lexicon, the arena and the index */
+	private Lexicon lexicon;
+	private CharArena words;
+	private double[] logp;
+	private DeletionIndex index;
+	private boolean indexed;
+
+	/**
+	 * word IDs by length, then by descending log-probability (then ID); the words of length l
+	 * are byLength[buckets[l]..buckets[l+1])
+	 */
+	private int[] byLength;
+	private int[] buckets;
+
+	/** pool for the sharded scoring; null to score on the calling thread */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/** suggestions by query and parameters; null for none */
+	private SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache =
+			new SuggestionCache<>(CACHE_SIZE);
+
+	/** suggestions (and their caching) read the lexicon, reload replaces it */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
 	public AutoCorrectSimple(Map<String, Double> logpw) {
-		this.logpw = logpw;
+		this(Lexicon.fromLogp(logpw));
+	}
+
+	public AutoCorrectSimple(Lexicon lexicon) {
+		this(lexicon, true);
+	}
+
+	AutoCorrectSimple(Map<String, Double> logpw, boolean indexed) {
+		this(Lexicon.fromLogp(logpw), indexed);
+	}
+
+	AutoCorrectSimple(Lexicon lexicon, boolean indexed) {
+		load(lexicon, indexed);
+	}
+
+	private void load(Lexicon lexicon, boolean indexed) {
+		this.lexicon = lexicon;
+		this.indexed = indexed;
+		this.words = lexicon.words;
+		this.logp = lexicon.logp;
+
+		String[] ws = new String [lexicon.size()];
+		for (int i = 0; i < ws.length; i++)
+			ws[i] = lexicon.word(i);
+
+		this.byLength = IntStream.range(0, ws.length).boxed()
+				.sorted(Comparator.comparingInt((Integer i) -> ws[i].length())
+						.thenComparing((i, j) -> Double.compare(logp[j], logp[i]))
+						.thenComparingInt(i -> i))
+				.mapToInt(Integer::intValue)
+				.toArray();
+
+		int maxLength = Arrays.stream(ws).mapToInt(String::length).max().orElse(0);
+		this.buckets = new int [maxLength + 2];
+		for (String w : ws)
+			buckets[w.length() + 1]++;
+		for (int l = 1; l < buckets.length; l++)
+			buckets[l] += buckets[l - 1];
+
+		this.index = (indexed ? new DeletionIndex(ws, INDEX_EDITS, INDEX_PREFIX) : null);
+	}
+
+	/**
+	 * Replace the lexicon (and rebuild its indices); the cached suggestions are dropped.  Queries
+	 * running meanwhile finish on the old lexicon, the reload waits for them.
+	 */
+	public void reload(Lexicon lexicon) {
+		lock.writeLock().lock();
+		try {
+			load(lexicon, indexed);
+			if (cache != null)
+				cache.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public Lexicon getLexicon() {
+		return lexicon;
+	}
+
+	/**
+	 * Cache for suggestA, suggestB, suggestD (and thus suggest); null to disable.  The cached
+	 * lists are unmodifiable.
+	 */
+	public void setCache(SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache) {
+		this.cache = cache;
+	}
+
+	public SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> getCache() {
+		return cache;
+	}
+
+	private List<Pair<String, Double>> cached(SuggestionCache.Key key, Supplier<List<Pair<String, Double>>> compute) {
+		lock.readLock().lock();
+		try {
+			SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> c = cache;
+			if (c == null)
+				return compute.get();
+			return c.get(key, k -> Collections.unmodifiableList(compute.get()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** the lexicon as map, in ID order */
+	Map<String, Double> getLogpw() {
+		Map<String, Double> logpw = new LinkedHashMap<>();
+		for (int i = 0; i < lexicon.size(); i++)
+			logpw.put(lexicon.word(i), logp[i]);
+		return logpw;
+	}
+
+	/**
+	 * Pool to score the lexicon shards of suggestB and suggestD on (default: the common pool);
+	 * null to score on the calling thread.  The ranking does not depend on it.
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/** scores the words ids[lo..hi) of one shard into its heap */
+	private interface ShardScorer {
+		void score(int[] ids, int lo, int hi, TopK top);
+	}
+
+	/**
+	 * Split the segments ids[lo..hi) into shards, score them in parallel into one top-n heap each
+	 * and merge those; on a single thread, all shards share one heap.  Ties are broken by the
+	 * smaller ID, ie. by map order as in a stable sort of a full scan, so the result does not
+	 * depend on the number of shards or the order they finish.
+	 * @param segments lo0, hi0, lo1, hi1, ...; shards never span two segments
+	 */
+	private List<Pair<String, Double>> rank(int[] ids, int[] segments, int n, ShardScorer scorer) {
+		int count = 0;
+		for (int s = 0; s < segments.length; s += 2)
+			count += segments[s + 1] - segments[s];
+
+		int shards = (pool == null ? 1
+				: Math.min(4 * pool.getParallelism(), (count + SHARD_MIN - 1) / SHARD_MIN));
+
+		TopK top = new TopK(n);
+		if (shards <= 1) {
+			for (int s = 0; s < segments.length; s += 2)
+				scorer.score(ids, segments[s], segments[s + 1], top);
+		} else {
+			final int size = (count + shards - 1) / shards;
+			List<ForkJoinTask<TopK>> tasks = new ArrayList<>(shards + segments.length / 2);
+			for (int s = 0; s < segments.length; s += 2) {
+				for (int from = segments[s]; from < segments[s + 1]; from += size) {
+					final int lo = from, hi = Math.min(segments[s + 1], from + size);
+					tasks.add(pool.submit(() -> {
+						TopK local = new TopK(n);
+						scorer.score(ids, lo, hi, local);
+						return local;
+					}));
+				}
+			}
+
+			for (ForkJoinTask<TopK> task : tasks) {
+				TopK local = task.join();
+				for (int i = 0; i < local.size(); i++)
+					top.offer(local.id(i), local.score(i));
+			}
+		}
+
+		top.sort();
+		List<Pair<String, Double>> li = new ArrayList<>(top.size());
+		for (int i = 0; i < top.size(); i++)
+			li.add(Pair.of(lexicon.word(top.id(i)), top.score(i)));
+		return li;
+	}
+
+	/**
+	 * Length buckets within m of the length of x, as segments of byLength; closest lengths first,
+	 * so that the threshold rises early.  No word is longer than buckets.length - 2, so a larger m
+	 * adds no buckets (and must not size the array).
+	 */
+	private int[] segments(String x, int m) {
+		m = Math.min(m, Math.max(x.length(), buckets.length - 2));
+		int[] segs = new int [2 * (2 * m + 1)];
+		int k = 0;
+		for (int d = 0; d <= m; d++) {
+			for (int l : (d == 0 ? new int [] {x.length()} : new int [] {x.length() - d, x.length() + d})) {
+				if (l < 0 || l + 1 >= buckets.length)
+					continue;
+				segs[k++] = buckets[l];
+				segs[k++] = buckets[l + 1];
+			}
+		}
+		return Arrays.copyOf(segs, k);
+	}
+
+	/**
+	 * IDs of the lexicon entries that may be within m edits of x, in map order (so that ties are
+	 * ranked as in a full scan); with the deletion index, this is a few hash lookups instead of a
+	 * scan, otherwise the length buckets within m.
+	 */
+	private int[] candidates(String x, int m) {
+		if (index != null && m <= index.maxEdits)
+			return index.candidates(x, m);
+
+		int[] segs = segments(x, m);
+		int count = 0;
+		for (int s = 0; s < segs.length; s += 2)
+			count += segs[s + 1] - segs[s];
+
+		int[] ids = new int [count];
+		for (int s = 0, k = 0; s < segs.length; s += 2)
+			for (int i = segs[s]; i < segs[s + 1]; i++)
+				ids[k++] = byLength[i];
+		Arrays.sort(ids);
+		return ids;
 	}
 
 	public List<Pair<String, Double>> suggest(String x) {
@@ -20,6 +255,21 @@ public class AutoCorrectSimple {
 		return suggestD(x, 2, 10, 0.2, 1.0);
 	}
 
+	/** cached, see rankA */
+	public List<Pair<String, Double>> suggestA(String x, int m, int n) {
+		return cached(new SuggestionCache.Key("A", x, m, n, 0, 0), () -> rankA(x, m, n));
+	}
+
+	/** cached, see rankB */
+	public List<Pair<String, Double>> suggestB(String x, int m, int n, double lambda, double z) {
+		return cached(new SuggestionCache.Key("B", x, m, n, lambda, z), () -> rankB(x, m, n, lambda, z));
+	}
+
+	/** cached, see rankD */
+	public List<Pair<String, Double>> suggestD(String x, int m, int n, double lambda, double z) {
+		return cached(new SuggestionCache.Key("D", x, m, n, lambda, z), () -> rankD(x, m, n, lambda, z));
+	}
+
 	/**
 	 * Suggest words. Heuristic is that there is exactly one suggestion if there's a lexicon match,
 	 * or otherwise first all hits with edit distance 1 ranked by P(w), then all with dist=2 etc.
@@ -29,24 +279,25 @@ public class AutoCorrectSimple {
 	 * @param n maximum number of suggestions
 	 * @return
 	 */
-	public List<Pair<String, Double>> suggestA(String x, int m, int n) {
+	private List<Pair<String, Double>> rankA(String x, int m, int n) {
 		List<Pair<String, Double>> li = new LinkedList<>();
 
 		// exact hit
-		if (logpw.containsKey(x)) {
+		if (lexicon.contains(x)) {
 			li.add(Pair.of(x, 0.0));
 			return li;
 		}
 
-		// compute edit dists, join with freq
+		// compute edit dists (the query is preprocessed once for the batch), join with freq
 		List<Triple<String, Integer, Double>> cands = new LinkedList<>();
 
-		for (Map.Entry<String, Double> e : logpw.entrySet()) {
-			if (Math.abs(x.length() - e.getKey().length()) > m)
-				continue;
-			int ed = Distances.edit(x, e.getKey());
-			if (ed <= m)
-				cands.add(Triple.of(e.getKey(), ed, e.getValue()));
+		int[] ids = candidates(x, m);
+		int[] eds = new int [ids.length];
+		new DistanceEngine(x).edit(words, ids, ids.length, m, eds);
+
+		for (int k = 0; k < ids.length; k++) {
+			if (eds[k] <= m)
+				cands.add(Triple.of(lexicon.word(ids[k]), eds[k], logp[ids[k]]));
 		}
 
 		// sort by edit, then by freq, limit to n
@@ -70,35 +321,79 @@ public class AutoCorrectSimple {
 	 * @param z weighting factor for P(x|w)
 	 * @return
 	 */
-	public List<Pair<String, Double>> suggestB(String x, int m, int n, double lambda, double z) {
+	private List<Pair<String, Double>> rankB(String x, int m, int n, double lambda, double z) {
 		List<Pair<String, Double>> li = new LinkedList<>();
 
 		// exact hit
-		if (logpw.containsKey(x)) {
+		if (lexicon.contains(x)) {
 			li.add(Pair.of(x, 0.0));
 			return li;
 		}
 
-		// here, we can directly compute the scores:
-		for (Map.Entry<String, Double> e : logpw.entrySet()) {
-			// discard if too far away
-			if (Math.abs(x.length() - e.getKey().length()) > m)
-				continue;
+		// here, we can directly compute the scores, shard by shard, keeping the n best of each;
+		// the engine discards those too far away (ed > m)
+		if (index != null && m <= index.maxEdits) {
+			int[] ids = index.candidates(x, m);
+			return rank(ids, new int [] {0, ids.length}, n, (cands, lo, hi, top) -> {
+				DistanceEngine engine = new DistanceEngine(x);
+				for (int k = lo; k < hi; k++) {
+					int ed = engine.edit(words, cands[k], m);
+					if (ed > m)
+						continue;
+
+					double score = -lambda * z * ed + logp[cands[k]];  // we actually have lop(P(w))
+					top.offer(cands[k], score);
+				}
+			});
+		}
 
-			// compute edit distance; discard if too far away
-			int ed = Distances.edit(x, e.getKey());
-			if (ed > m)
-				continue;
+		// otherwise scan the length buckets by descending P(w), until no word can make it
+		return rank(byLength, segments(x, m), n, (ids, lo, hi, top) -> {
+			DistanceEngine engine = new DistanceEngine(x);
+			double dmin = minDistance(x, lo);
+			for (int k = lo; k < hi; k++) {
+				if (pruned(top, lambda * z, dmin, logp[ids[k]]))
+					break;
+
+				// the engine discards those too far away (ed > m, or too far to make it)
+				int max = (int) Math.min(m, Math.floor(reach(top, lambda * z, logp[ids[k]])));
+				int ed = engine.edit(words, ids[k], max);
+				if (ed > max)
+					continue;
+
+				double score = -lambda * z * ed + logp[ids[k]];  // we actually have lop(P(w))
+				top.offer(ids[k], score);
+			}
+		});
+	}
 
-			double score = -lambda * z * ed + e.getValue();  // we actually have lop(P(w))
-			li.add(Pair.of(e.getKey(), score));
-		}
+	/**
+	 * Lower bound for the distance of x to the words of the bucket starting at byLength[lo]:
+	 * the length difference, and at least one edit, since x is not in the lexicon.  This holds
+	 * for edit and editd alike.
+	 */
+	private double minDistance(String x, int lo) {
+		return Math.max(1, Math.abs(x.length() - words.length(byLength[lo])));
+	}
 
-		// sort (log-)likelihood, descending, limit to 15
-		return li.stream()
-				.sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
-				.limit(n)
-				.collect(Collectors.toList());
+	/**
+	 * Threshold test (cf. Fagin): the words of a bucket come by descending log-probability, so if
+	 * the best score still possible, -w*dmin + logp, does not reach the n-th best, none of the
+	 * remaining words of the bucket do.  Ties may still win by a smaller ID, so only strictly
+	 * worse is pruned; and only if the score decreases with the distance (w &gt;= 0).
+	 */
+	private static boolean pruned(TopK top, double w, double dmin, double logp) {
+		return w >= 0 && top.isFull() && -w * dmin + logp < top.threshold();
+	}
+
+	/**
+	 * Largest distance at which a word with logp can still reach the n-th best (plus some slack
+	 * for rounding; the actual score is compared anyway), so the bounded distance can stop early.
+	 */
+	private static double reach(TopK top, double w, double logp) {
+		if (w <= 0 || !top.isFull())
+			return Double.POSITIVE_INFINITY;
+		return (logp - top.threshold()) / w + 1e-9;
 	}
 
 
@@ -114,71 +409,43 @@ public class AutoCorrectSimple {
 	 * @param z weighting factor for P(x|w)
 	 * @return
 	 */
-	public List<Pair<String, Double>> suggestD(String x, int m, int n, double lambda, double z) {
+	private List<Pair<String, Double>> rankD(String x, int m, int n, double lambda, double z) {
 		List<Pair<String, Double>> li = new LinkedList<>();
 
 		// exact hit
-		if (logpw.containsKey(x)) {
+		if (lexicon.contains(x)) {
 			li.add(Pair.of(x, 0.0));
 			return li;
 		}
 
-		// here, we can directly compute the scores:
-		for (Map.Entry<String, Double> e : logpw.entrySet()) {
-			// discard if too far away
-			if (Math.abs(x.length() - e.getKey().length()) > m)
-				continue;
-
-			// compute edit distance; discard if too far away
-			double ed = Distances.editd(x, e.getKey());
-			if (ed > m + 6)
-				continue;
-
-			double score = -lambda * z * ed + e.getValue();  // we actually have lop(P(w))
-			li.add(Pair.of(e.getKey(), score));
-		}
-
-		// sort (log-)likelihood, descending, limit to 15
-		return li.stream()
-				.sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
-				.limit(n)
-				.collect(Collectors.toList());
+		// the keyboard-weighted distance is not bounded by m edits (see the cut-off below), so the
+		// deletion index does not apply: scan the length buckets within m (shard by shard, keeping
+		// the n best of each) by descending P(w), until no word can make it
+		return rank(byLength, segments(x, m), n, (ids, lo, hi, top) -> {
+			DistanceEngine engine = new DistanceEngine(x);
+			double dmin = minDistance(x, lo);
+			for (int k = lo; k < hi; k++) {
+				if (pruned(top, lambda * z, dmin, logp[ids[k]]))
+					break;
+
+				// the engine discards by distance (ed > m + 6, or too far to make it)
+				double max = Math.min(m + 6.0, reach(top, lambda * z, logp[ids[k]]));
+				double ed = engine.editd(words, ids[k], max);
+				if (ed > max)
+					continue;
+
+				double score = -lambda * z * ed + logp[ids[k]];  // we actually have lop(P(w))
+				top.offer(ids[k], score);
+			}
+		});
 	}
 
+	/**
+	 * Lexicon from a zipped corpus of lines "word count"; the parsed lexicon is cached, see
+	 * Lexicon.load
+	 */
 	public static AutoCorrectSimple fromZippedTextCorpus(File zipFile, String fileName) throws IOException {
-
-
-		byte[] buffer = new byte[1024];
-		ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile));
-		ZipEntry zipEntry = zis.getNextEntry();
-
-		// there should just be a single file
-		if (!zipEntry.getName().equals(fileName))
-			throw new IOException(fileName + " not first in " + zipFile.getAbsolutePath());
-
-		// read lines
-		BufferedReader br = new BufferedReader(new InputStreamReader(zis));
-
-		Map<String, Double> pw = new TreeMap<>();
-		String line;
-		double sum = 0;
-		while ((line = br.readLine()) != null) {
-			String[] pair = line.split("\\s+");
-			long count = Long.parseLong(pair[1]);
-			pw.put(pair[0], Math.log(count));
-			sum += count;
-		}
-
-		zis.closeEntry();
-		zis.close();
-
-		// normalize and log
-		sum = Math.log(sum);
-		for (Map.Entry<String, Double> e : pw.entrySet()) {
-			pw.put(e.getKey(), e.getValue() - sum);
-		}
-
-		return new AutoCorrectSimple(pw);
+		return new AutoCorrectSimple(Lexicon.load(zipFile, fileName));
 	}
 
 	public static AutoCorrectSimple fromDummy() {
@@ -0,0 +1,45 @@
+package com.github.sikoried.sl.autocorrect;
+
+import java.util.List;
+
+/**
+ * Words packed back to back into one char array: word i is chars[offsets[i]..offsets[i+1]).
+ * Scanning a lexicon this way touches one contiguous array instead of a String (and its array)
+ * per word.
+ */
+public final class CharArena {
+	final char[] chars;
+	final int[] offsets;
+
+	public CharArena(List<String> words) {
+		this(words.toArray(new String [0]));
+	}
+
+	public CharArena(String[] words) {
+		offsets = new int [words.length + 1];
+		for (int i = 0; i < words.length; i++)
+			offsets[i + 1] = offsets[i] + words[i].length();
+
+		chars = new char [offsets[words.length]];
+		for (int i = 0; i < words.length; i++)
+			words[i].getChars(0, words[i].length(), chars, offsets[i]);
+	}
+
+	/** wrap packed words as they are, eg. read from a file */
+	CharArena(char[] chars, int[] offsets) {
+		this.chars = chars;
+		this.offsets = offsets;
+	}
+
+	public int size() {
+		return offsets.length - 1;
+	}
+
+	public int length(int id) {
+		return offsets[id + 1] - offsets[id];
+	}
+
+	public String word(int id) {
+		return new String(chars, offsets[id], length(id));
+	}
+}
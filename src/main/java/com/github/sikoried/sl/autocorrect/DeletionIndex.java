@@ -0,0 +1,149 @@
+package com.github.sikoried.sl.autocorrect;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Symmetric-delete index (cf. SymSpell): every word is indexed by all strings obtained by deleting
+ * up to maxEdits characters of its first `prefix` characters.  If two words are within m edits,
+ * their prefixes share such a deletion with at most m deletes on either side, so looking up the
+ * deletions of the query yields a superset of the words within m edits; candidates must still be
+ * verified with the actual distance.
+ *
+ * To keep it compact, the deletions are not stored but hashed; the index is a sorted array of
+ * hashes pointing to ranges of word IDs.  Hash collisions only add candidates.
+ */
+class DeletionIndex {
+	final int maxEdits;
+	final int prefix;
+
+	/** sorted (unique) deletion hashes; the words of keys[k] are ids[offsets[k]..offsets[k+1]) */
+	private final int[] keys;
+	private final int[] offsets;
+	private final int[] ids;
+
+	/**
+	 * @param words lexicon, the index of each word is its ID
+	 * @param maxEdits maximum number of edits supported by the index
+	 * @param prefix number of leading characters to index
+	 */
+	DeletionIndex(String[] words, int maxEdits, int prefix) {
+		this.maxEdits = maxEdits;
+		this.prefix = prefix;
+
+		// number of deletions: sum over k <= maxEdits of (len choose k)
+		int total = 0;
+		for (String w : words)
+			total += variants(Math.min(w.length(), prefix), maxEdits);
+
+		// (hash, id) pairs, sorted by hash then id
+		long[] pairs = new long [total];
+		int[] n = {0};
+		for (int id = 0; id < words.length; id++) {
+			final long lo = id;
+			deletions(words[id], maxEdits, h -> pairs[n[0]++] = ((long) h << 32) | lo);
+		}
+		Arrays.sort(pairs);
+
+		int[] keys = new int [total];
+		int[] offsets = new int [total + 1];
+		int[] ids = new int [total];
+		int k = -1, m = 0;
+		for (int i = 0; i < total; i++) {
+			int h = (int) (pairs[i] >> 32), id = (int) pairs[i];
+
+			// same word, same deletion (eg. "aab" minus either "a")
+			if (i > 0 && pairs[i] == pairs[i - 1])
+				continue;
+
+			if (k < 0 || keys[k] != h) {
+				keys[++k] = h;
+				offsets[k] = m;
+			}
+			ids[m++] = id;
+		}
+		offsets[k + 1] = m;
+
+		this.keys = Arrays.copyOf(keys, k + 1);
+		this.offsets = Arrays.copyOf(offsets, k + 2);
+		this.ids = Arrays.copyOf(ids, m);
+	}
+
+	/**
+	 * Candidate words for x
+	 * @param x query
+	 * @param m max edits, must not exceed maxEdits
+	 * @return sorted word IDs, a superset of the words within m edits of x
+	 */
+	int[] candidates(String x, int m) {
+		if (m > maxEdits)
+			throw new IllegalArgumentException("index supports up to " + maxEdits + " edits, not " + m);
+
+		int[][] cands = {new int [64]};
+		int[] n = {0};
+		deletions(x, m, h -> {
+			int k = Arrays.binarySearch(keys, h);
+			if (k < 0)
+				return;
+
+			int from = offsets[k], to = offsets[k + 1];
+			if (n[0] + to - from > cands[0].length)
+				cands[0] = Arrays.copyOf(cands[0], Math.max(2 * cands[0].length, n[0] + to - from));
+			System.arraycopy(ids, from, cands[0], n[0], to - from);
+			n[0] += to - from;
+		});
+
+		int[] sorted = Arrays.copyOf(cands[0], n[0]);
+		Arrays.sort(sorted);
+
+		// unique
+		int u = 0;
+		for (int i = 0; i < sorted.length; i++)
+			if (i == 0 || sorted[i] != sorted[u - 1])
+				sorted[u++] = sorted[i];
+
+		return Arrays.copyOf(sorted, u);
+	}
+
+	/** number of index entries */
+	int size() {
+		return ids.length;
+	}
+
+	/** hashes of all deletions of up to m characters of the prefix of w */
+	private void deletions(String w, int m, IntConsumer out) {
+		char[] cs = w.substring(0, Math.min(w.length(), prefix)).toCharArray();
+		deletions(cs, cs.length, 0, m, out);
+	}
+
+	/** deleting only at positions >= start enumerates each set of positions once */
+	private static void deletions(char[] cs, int len, int start, int m, IntConsumer out) {
+		out.accept(hash(cs, len));
+		if (m == 0)
+			return;
+
+		for (int i = start; i < len; i++) {
+			char[] d = new char [len - 1];
+			System.arraycopy(cs, 0, d, 0, i);
+			System.arraycopy(cs, i + 1, d, i, len - 1 - i);
+			deletions(d, len - 1, i, m - 1, out);
+		}
+	}
+
+	private static int variants(int len, int m) {
+		int v = 0, c = 1;
+		for (int k = 0; k <= m && k <= len; k++) {
+			v += c;
+			c = c * (len - k) / (k + 1);
+		}
+		return v;
+	}
+
+	/** FNV-1a over the chars */
+	private static int hash(char[] cs, int len) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < len; i++)
+			h = (h ^ cs[i]) * 0x01000193;
+		return h ^ len;
+	}
+}
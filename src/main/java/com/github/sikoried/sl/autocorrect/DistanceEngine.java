@@ -0,0 +1,299 @@
+package com.github.sikoried.sl.autocorrect;
+
+import java.util.Arrays;
+
+/**
+ * One query against many words: everything that depends on the query only is computed once,
+ * the match bit-masks for the bit-parallel unit-cost distance and the keyboard penalty row
+ * offsets for the weighted distance.  The words are read directly from a CharArena (or a
+ * String).  These are the unit-cost and bounded kernels; the respective Distances methods run
+ * on a thread-local engine, with their first argument as the query.
+ *
+ * An engine keeps scratch rows, so it is not thread-safe; use one per thread (and query).
+ */
+public final class DistanceEngine {
+	private String query;
+	private char[] q;
+	private Keyboard kb;
+
+	/** match masks of the query chars: chars below 256 by table, the others by list */
+	private final long[] peqLow = new long [256];
+	private char[] peqChars = new char [0];
+	private long[] peqMasks = new long [0];
+
+	/** query key indices times the keyboard size, ie. row offsets into the penalty matrix */
+	private int[] qk = new int [0];
+
+	/** scratch: word key indices, DP rows, String words */
+	private int[] wk = new int [32];
+	private int[] prev = new int [32], curr = new int [32];
+	private double[] dprev = new double [32], dcurr = new double [32];
+	private char[] buf = new char [32];
+
+	public DistanceEngine(String query) {
+		this(query, Keyboard.DEFAULT);
+	}
+
+	public DistanceEngine(String query, Keyboard kb) {
+		reset(query, kb);
+	}
+
+	/** switch to another query, keeping the scratch rows */
+	public void reset(String query) {
+		reset(query, kb);
+	}
+
+	/** switch to another query and layout, keeping the scratch rows */
+	public void reset(String query, Keyboard kb) {
+		this.kb = kb;
+
+		if (q != null && q.length <= 64)
+			for (char c : q)
+				if (c < 256)
+					peqLow[c] = 0L;
+		peqChars = new char [0];
+		peqMasks = new long [0];
+
+		this.query = query;
+		this.q = query.toCharArray();
+
+		if (q.length <= 64) {
+			for (int i = 0; i < q.length; i++) {
+				char c = q[i];
+				if (c < 256) {
+					peqLow[c] |= 1L << i;
+					continue;
+				}
+
+				int k = 0;
+				while (k < peqChars.length && peqChars[k] != c)
+					k++;
+				if (k == peqChars.length) {
+					peqChars = Arrays.copyOf(peqChars, k + 1);
+					peqMasks = Arrays.copyOf(peqMasks, k + 1);
+					peqChars[k] = c;
+				}
+				peqMasks[k] |= 1L << i;
+			}
+		}
+
+		if (qk.length < q.length)
+			qk = new int [Math.max(q.length, 2 * qk.length)];
+		for (int i = 0; i < q.length; i++)
+			qk[i] = kb.index(q[i]) * kb.size();
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	private long peq(char c) {
+		if (c < 256)
+			return peqLow[c];
+		for (int k = 0; k < peqChars.length; k++)
+			if (peqChars[k] == c)
+				return peqMasks[k];
+		return 0L;
+	}
+
+	/** unit-cost distance of the query to word id, cf. Distances.edit(query, word) */
+	public int edit(CharArena words, int id) {
+		int off = words.offsets[id];
+		return edit(words.chars, off, words.offsets[id + 1] - off, Integer.MAX_VALUE - 1);
+	}
+
+	/** bounded unit-cost distance, cf. Distances.edit(query, word, maxDist) */
+	public int edit(CharArena words, int id, int maxDist) {
+		int off = words.offsets[id];
+		return edit(words.chars, off, words.offsets[id + 1] - off, maxDist);
+	}
+
+	/**
+	 * Batch: out[k] = edit(words, ids[k], maxDist) for the first count ids
+	 */
+	public void edit(CharArena words, int[] ids, int count, int maxDist, int[] out) {
+		final char[] cs = words.chars;
+		final int[] offs = words.offsets;
+		for (int k = 0; k < count; k++) {
+			int id = ids[k];
+			out[k] = edit(cs, offs[id], offs[id + 1] - offs[id], maxDist);
+		}
+	}
+
+	public int edit(String word) {
+		return edit(word, Integer.MAX_VALUE - 1);
+	}
+
+	public int edit(String word, int maxDist) {
+		return edit(chars(word), 0, word.length(), maxDist);
+	}
+
+	/** keyboard-weighted bounded distance, cf. Distances.editd(query, word, maxDist, kb) */
+	public double editd(CharArena words, int id, double maxDist) {
+		int off = words.offsets[id];
+		return editd(words.chars, off, words.offsets[id + 1] - off, maxDist);
+	}
+
+	/**
+	 * Batch: out[k] = editd(words, ids[k], maxDist) for the first count ids
+	 */
+	public void editd(CharArena words, int[] ids, int count, double maxDist, double[] out) {
+		final char[] cs = words.chars;
+		final int[] offs = words.offsets;
+		for (int k = 0; k < count; k++) {
+			int id = ids[k];
+			out[k] = editd(cs, offs[id], offs[id + 1] - offs[id], maxDist);
+		}
+	}
+
+	public double editd(String word, double maxDist) {
+		return editd(chars(word), 0, word.length(), maxDist);
+	}
+
+	private char[] chars(String word) {
+		if (buf.length < word.length())
+			buf = new char [Math.max(word.length(), 2 * buf.length)];
+		word.getChars(0, word.length(), buf, 0);
+		return buf;
+	}
+
+	private void fit(int m) {
+		if (prev.length < m + 1) {
+			int k = Math.max(m + 1, 2 * prev.length);
+			prev = new int [k];
+			curr = new int [k];
+			dprev = new double [k];
+			dcurr = new double [k];
+			wk = new int [k];
+		}
+	}
+
+	/** @return the distance if at most maxDist, otherwise maxDist+1 */
+	private int edit(char[] t, int off, int n, int maxDist) {
+		final int m = q.length;
+		if (Math.abs(n - m) > maxDist)
+			return maxDist + 1;
+		if (m == 0 || n == 0)
+			return Math.max(m, n);
+
+		if (m > 64)
+			return banded(t, off, n, maxDist);
+
+		// Myers/Hyyroe, query as pattern (see Distances.myers)
+		final long last = 1L << (m - 1);
+		long pv = ~0L, mv = 0L;
+		int score = m;
+
+		for (int j = 0; j < n; j++) {
+			final long eq = peq(t[off + j]);
+			final long xv = eq | mv;
+			final long xh = (((eq & pv) + pv) ^ pv) | eq;
+
+			long ph = mv | ~(xh | pv);
+			long mh = pv & xh;
+
+			if ((ph & last) != 0)
+				score++;
+			else if ((mh & last) != 0)
+				score--;
+
+			// each remaining char lowers the score by at most one
+			if (score - (n - 1 - j) > maxDist)
+				return maxDist + 1;
+
+			ph = (ph << 1) | 1L;
+			mh <<= 1;
+
+			pv = mh | ~(xv | ph);
+			mv = ph & xv;
+		}
+
+		return score <= maxDist ? score : maxDist + 1;
+	}
+
+	/** long queries: banded DP as in Distances.edit(a, b, maxDist) */
+	private int banded(char[] t, int off, int m, int maxDist) {
+		final int n = q.length;
+		final int inf = maxDist + 1;
+
+		fit(m);
+		int[] prev = this.prev, curr = this.curr;
+
+		for (int j = 0; j <= m; j++)
+			prev[j] = (int) Math.min(j, (long) inf);
+
+		for (int i = 1; i <= n; i++) {
+			final int lo = Math.max(1, i - maxDist), hi = (int) Math.min(m, (long) i + maxDist);
+			final char x = q[i - 1];
+
+			curr[lo - 1] = (lo == 1 ? Math.min(i, inf) : inf);
+			int best = curr[lo - 1];
+			for (int j = lo; j <= hi; j++) {
+				int d = prev[j - 1] + (x == t[off + j - 1] ? 0 : 1);
+				d = Math.min(d, Math.min(prev[j], curr[j - 1]) + 1);
+				curr[j] = Math.min(d, inf);
+				best = Math.min(best, curr[j]);
+			}
+			if (hi < m)
+				curr[hi + 1] = inf;
+
+			if (best > maxDist)
+				return inf;
+
+			int[] tmp = prev;
+			prev = curr;
+			curr = tmp;
+		}
+
+		return prev[m];
+	}
+
+	/** @return the distance if at most maxDist, otherwise +Infinity; cf. Distances.editd */
+	private double editd(char[] t, int off, int m, double maxDist) {
+		final int n = q.length;
+		if (Math.abs(n - m) > maxDist)
+			return Double.POSITIVE_INFINITY;
+		if (n == 0 || m == 0)
+			return Math.max(n, m);
+
+		final int w = (int) Math.min(Math.floor(maxDist), Integer.MAX_VALUE - 1);
+		final double inf = Double.POSITIVE_INFINITY;
+
+		fit(m);
+		double[] prev = dprev, curr = dcurr;
+		final int[] xi = qk, yi = wk;
+		final double[] pen = kb.distance;
+
+		for (int j = 0; j < m; j++)
+			yi[j] = kb.index(t[off + j]);
+
+		for (int j = 0; j <= m; j++)
+			prev[j] = (j <= w ? j : inf);
+
+		for (int i = 1; i <= n; i++) {
+			final int lo = Math.max(1, i - w), hi = (int) Math.min(m, (long) i + w);
+			final char x = q[i - 1];
+
+			curr[lo - 1] = (lo == 1 && i <= w ? i : inf);
+			double best = curr[lo - 1];
+			for (int j = lo; j <= hi; j++) {
+				double cd = prev[j - 1] + (x == t[off + j - 1] ? 0 : 1) + pen[xi[i - 1] + yi[j - 1]];
+				double ch = prev[j] + 1 + (j < m ? pen[xi[i - 1] + yi[j]] : 0);
+				double cv = curr[j - 1] + 1 + (i < n ? pen[xi[i] + yi[j - 1]] : 0);
+				curr[j] = Math.min(cd, Math.min(ch, cv));
+				best = Math.min(best, curr[j]);
+			}
+			if (hi < m)
+				curr[hi + 1] = inf;
+
+			if (best > maxDist)
+				return inf;
+
+			double[] tmp = prev;
+			prev = curr;
+			curr = tmp;
+		}
+
+		return prev[m] > maxDist ? inf : prev[m];
+	}
+}
@@ -2,6 +2,7 @@ package com.github.sikoried.sl.autocorrect;
 
 import org.apache.commons.lang3.tuple.Pair;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class Distances {
@@ -17,20 +18,121 @@ public class Distances {
 		return d + Math.abs(a.length() - b.length());
 	}
 
+	/** default: same cost for all edits: match, replace, insert, delete */
+	private static final int[] UNIT = {0, 1, 1, 1};
+
+	/** per-thread scratch rows, so that the distance-only kernels allocate nothing per call */
+	private static final class Scratch {
+		int[] prev = new int [32], curr = new int [32];
+		double[] dprev = new double [32], dcurr = new double [32];
+
+		/** keyboard indices of the chars of the two strings */
+		int[] xi = new int [32], yi = new int [32];
+
+		void fit(int n, int m) {
+			if (prev.length < m + 1) {
+				int k = Math.max(m + 1, 2 * prev.length);
+				prev = new int [k];
+				curr = new int [k];
+				dprev = new double [k];
+				dcurr = new double [k];
+			}
+			if (xi.length < n + 1 || yi.length < m + 1) {
+				int k = Math.max(Math.max(n, m) + 1, 2 * xi.length);
+				xi = new int [k];
+				yi = new int [k];
+			}
+		}
+	}
+
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/** per-thread engine for the unit-cost and bounded distances, reset to each query */
+	private static final ThreadLocal<DistanceEngine> engines = ThreadLocal.withInitial(() -> new DistanceEngine(""));
+
+	private static DistanceEngine engine(String query, Keyboard kb) {
+		DistanceEngine e = engines.get();
+		e.reset(query, kb);
+		return e;
+	}
+
 	public static int edit(String a, String b) {
-		// default: same cost for all edits: match, replace, insert, delete
-		return edit(a, b, new int[] {0, 1, 1, 1}, null);
+		return edit(a, b, UNIT);
 	}
 
+	/**
+	 * Distance only: two rolling rows in thread-local scratch space, no allocation per call.
+	 * Unit costs run on DistanceEngine, bit-parallel if the shorter string fits in 64 bits.
+	 * @param cost match, replace, insert, delete
+	 */
+	public static int edit(String a, String b, int[] cost) {
+		final int n = a.length(), m = b.length();
+		if (n == 0)
+			return m;
+		if (m == 0)
+			return n;
+
+		// unit costs: bit-parallel, with the shorter string as pattern (see DistanceEngine)
+		if (Arrays.equals(cost, UNIT))
+			return n <= m ? engine(a, Keyboard.DEFAULT).edit(b) : engine(b, Keyboard.DEFAULT).edit(a);
+
+		Scratch s = scratch.get();
+		s.fit(n, m);
+		int[] prev = s.prev, curr = s.curr;
+
+		for (int j = 0; j <= m; j++)
+			prev[j] = j;
+
+		for (int i = 1; i <= n; i++) {
+			final char x = a.charAt(i - 1);
+			curr[0] = i;
+			for (int j = 1; j <= m; j++) {
+				int cd = prev[j - 1] + cost[x == b.charAt(j - 1) ? 0 : 1];
+				int ch = prev[j] + cost[2];
+				int cv = curr[j - 1] + cost[3];
+				curr[j] = Math.min(cd, Math.min(ch, cv));
+			}
+
+			int[] t = prev;
+			prev = curr;
+			curr = t;
+		}
+
+		return prev[m];
+	}
+
+	/**
+	 * Bounded unit-cost distance, on DistanceEngine: bit-parallel with early termination, or for
+	 * a first string of more than 64 chars, Ukkonen's diagonal band of width 2*maxDist+1, which
+	 * stops as soon as a whole row of the band exceeds the bound.
+	 * @return the distance if at most maxDist, otherwise maxDist+1
+	 */
+	public static int edit(String a, String b, int maxDist) {
+		final int n = a.length(), m = b.length();
+
+		// the distance is at most max(n, m), so a larger bound changes nothing (but could overflow)
+		if (maxDist > Math.max(n, m))
+			maxDist = Math.max(n, m);
+
+		return engine(a, Keyboard.DEFAULT).edit(b, maxDist);
+	}
+
+	/**
+	 * Distance and edit operations; this keeps the full matrices for the traceback, so only use
+	 * it if the trace is needed.
+	 * @param cost match, replace, insert, delete
+	 * @param trace if not null, receives the operations (0 match, 1 replace, 2 insert, 3 delete)
+	 */
 	public static int edit(String a, String b, int[] cost, List<Integer> trace) {
+		if (trace == null)
+			return edit(a, b, cost);
+
 		if (a.length() == 0) {
-			if (trace != null)
-				trace.add(2);
+			trace.add(2);
 			return b.length();
 		}
 		if (b.length() == 0) {
-			if (trace != null)
-					trace.add(3);
+			trace.add(3);
 			return a.length();
 		}
 		// match, replace, insert, delete
@@ -48,55 +150,47 @@ public class Distances {
 		}
 		for (int i = 0; i < D[0].length; i++) {
 			D[0][i] = i;
-			T[0][i] = 2;
+			T[0][i] = 3;
 		}
 
 
 		// bottom-up
 		for (int i = 1; i < xs.length + 1; i++) {
 			for (int j = 1; j < ys.length + 1; j++) {
-				// (cost, action)
-				Pair<Integer, Integer> m = min(D, i, j, xs[i-1] == ys[j-1], cost);
-				D[i][j] = m.getLeft();
-				T[i][j] = m.getRight();
+				boolean match = xs[i-1] == ys[j-1];
+				int cd = D[i-1][j-1] + cost[match ? 0 : 1];
+				int ch = D[i-1][j] + cost[2];
+				int cv = D[i][j-1] + cost[3];
+
+				// ties: prefer match/replace, then insert, then delete
+				D[i][j] = Math.min(cd, Math.min(ch, cv));
+				T[i][j] = (D[i][j] == cd ? (match ? 0 : 1) : (D[i][j] == ch ? 2 : 3));
 				// System.err.println(matrix(D));
 			}
 		}
 
-		// compute trace if necessary
-		if (trace != null) {
-			int i = xs.length, j = ys.length;
-			while (i > 0 || j > 0) {
-				int op = T[i][j];
-				trace.add(0, op);
-				switch (op) {
-					case 0:
-					case 1:
-						i--; j--;
-						break;
-					case 2:
-						i--;
-						break;
-					case 3:
-						j--;
-						break;
-				}
+		// compute trace
+		int i = xs.length, j = ys.length;
+		while (i > 0 || j > 0) {
+			int op = T[i][j];
+			trace.add(0, op);
+			switch (op) {
+				case 0:
+				case 1:
+					i--; j--;
+					break;
+				case 2:
+					i--;
+					break;
+				case 3:
+					j--;
+					break;
 			}
 		}
 
 		return D[xs.length][ys.length];
 	}
 
-	private static Pair<Integer, Integer> min(int[][] D, int i, int j, boolean match, int[] cost) {
-		int cd = D[i-1][j-1] + cost[match ? 0 : 1];
-		int ch = D[i-1][j] + cost[2];
-		int cv = D[i][j-1] + cost[3];
-
-		if (cd < ch && cd < cv) return Pair.of(cd, match ? 0 : 1);
-		else if (ch < cv && ch < cd) return Pair.of(ch, 2);
-		else return Pair.of(cv, 3);
-	}
-
 	private static String matrix(int[][] D) {
 		StringBuilder sb = new StringBuilder();
 		for (int[] di : D) {
@@ -109,46 +203,99 @@ public class Distances {
 
 
 	static Pair<Integer, Integer> coord(char a) {
-		final String[] layout = {
-				"qwertyuiopü",
-				"asdfghjklöä",
-				"zxcvbnmß"
-		};
-
-		int i = 0, j;
-		while ((j = layout[i].indexOf(a)) == -1) {
-			i++;
-			if (i >= layout.length)
-				break;
-		}
-
-		return Pair.of(i, j);
+		return Pair.of(Keyboard.DEFAULT.row(a), Keyboard.DEFAULT.col(a));
 	}
 
 	static double penalty(char a, char b) {
-		Pair<Integer, Integer> c1 = coord(a);
-		Pair<Integer, Integer> c2 = coord(b);
+		return Keyboard.DEFAULT.penalty(a, b);
+	}
 
-		return Math.sqrt(Math.pow(c1.getLeft() - c2.getLeft(), 2)
-					+ Math.pow(c1.getRight() - c2.getRight(), 2));
+	public static double editd(String a, String b) {
+		return editd(a, b, UNIT);
 	}
 
+	/** Keyboard-weighted distance on the default layout */
+	public static double editd(String a, String b, int[] cost) {
+		return editd(a, b, cost, Keyboard.DEFAULT);
+	}
 
+	/**
+	 * Keyboard-weighted distance only: two rolling rows in thread-local scratch space; the chars
+	 * are mapped to key indices once per call, so each penalty is a single read from the layout's
+	 * precomputed matrix.
+	 * @param cost match, replace, insert, delete
+	 */
+	public static double editd(String a, String b, int[] cost, Keyboard kb) {
+		final int n = a.length(), m = b.length();
+		if (n == 0)
+			return m;
+		if (m == 0)
+			return n;
+
+		Scratch s = scratch.get();
+		s.fit(n, m);
+		double[] prev = s.dprev, curr = s.dcurr;
+		final int[] xi = s.xi, yi = s.yi;
+		final double[] pen = kb.distance;
+		final int k = kb.size();
+
+		// row offsets into the penalty matrix for a, column indices for b
+		for (int i = 0; i < n; i++)
+			xi[i] = kb.index(a.charAt(i)) * k;
+		for (int j = 0; j < m; j++)
+			yi[j] = kb.index(b.charAt(j));
+
+		for (int j = 0; j <= m; j++)
+			prev[j] = j;
+
+		for (int i = 1; i <= n; i++) {
+			final char x = a.charAt(i - 1);
+			curr[0] = i;
+			for (int j = 1; j <= m; j++) {
+				double cd = prev[j - 1] + cost[x == b.charAt(j - 1) ? 0 : 1] + pen[xi[i - 1] + yi[j - 1]];
+				double ch = prev[j] + cost[2] + (j < m ? pen[xi[i - 1] + yi[j]] : 0);
+				double cv = curr[j - 1] + cost[3] + (i < n ? pen[xi[i] + yi[j - 1]] : 0);
+				curr[j] = Math.min(cd, Math.min(ch, cv));
+			}
 
-	public static double editd(String a, String b) {
-		// default: same cost for all edits: match, replace, insert, delete
-		return editd(a, b, new int[] {0, 1, 1, 1}, null);
+			double[] t = prev;
+			prev = curr;
+			curr = t;
+		}
+
+		return prev[m];
+	}
+
+	/**
+	 * Bounded keyboard-weighted distance: every edit off the diagonal costs at least 1, so as in
+	 * edit(a, b, maxDist), only a diagonal band needs to be computed, and the computation stops
+	 * as soon as a whole row of the band exceeds the bound.
+	 * @return the distance if at most maxDist, otherwise +Infinity
+	 */
+	public static double editd(String a, String b, double maxDist) {
+		return editd(a, b, maxDist, Keyboard.DEFAULT);
 	}
 
+	/** Bounded keyboard-weighted distance on the given layout, see editd(a, b, maxDist) */
+	public static double editd(String a, String b, double maxDist, Keyboard kb) {
+		return engine(a, kb).editd(b, maxDist);
+	}
+
+	/**
+	 * Keyboard-weighted distance and edit operations; keeps the full matrices for the traceback.
+	 * @param cost match, replace, insert, delete
+	 * @param trace if not null, receives the operations (0 match, 1 replace, 2 insert, 3 delete)
+	 */
 	public static double editd(String a, String b, int[] cost, List<Integer> trace) {
+		if (trace == null)
+			return editd(a, b, cost);
+
 		if (a.length() == 0) {
-			if (trace != null)
-				trace.add(2);
+			trace.add(2);
 			return b.length();
 		}
 		if (b.length() == 0) {
-			if (trace != null)
-				trace.add(3);
+			trace.add(3);
 			return a.length();
 		}
 		// match, replace, insert, delete
@@ -166,57 +313,47 @@ public class Distances {
 		}
 		for (int i = 0; i < D[0].length; i++) {
 			D[0][i] = i;
-			T[0][i] = 2;
+			T[0][i] = 3;
 		}
 
 
 		// bottom-up
 		for (int i = 1; i < xs.length + 1; i++) {
 			for (int j = 1; j < ys.length + 1; j++) {
-				// (cost, action)
-				Pair<Double, Integer> m = min(D, i, j, xs, ys, cost);
-				D[i][j] = m.getLeft();
-				T[i][j] = m.getRight();
-				// aSystem.err.println(matrix(D));
+				boolean match = (xs[i-1] == ys[j-1]);
+				double cd = D[i-1][j-1] + cost[match ? 0 : 1] + penalty(xs[i-1], ys[j-1]);
+				double ch = D[i-1][j] + cost[2] + (j < ys.length ? penalty(xs[i-1], ys[j]) : 0);
+				double cv = D[i][j-1] + cost[3] + (i < xs.length ? penalty(xs[i], ys[j-1]) : 0);
+
+				// ties: prefer match/replace, then insert, then delete
+				D[i][j] = Math.min(cd, Math.min(ch, cv));
+				T[i][j] = (D[i][j] == cd ? (match ? 0 : 1) : (D[i][j] == ch ? 2 : 3));
+				// System.err.println(matrix(D));
 			}
 		}
 
-		// compute trace if necessary
-		if (trace != null) {
-			int i = xs.length, j = ys.length;
-			while (i > 0 || j > 0) {
-				int op = T[i][j];
-				trace.add(0, op);
-				switch (op) {
-					case 0:
-					case 1:
-						i--; j--;
-						break;
-					case 2:
-						i--;
-						break;
-					case 3:
-						j--;
-						break;
-				}
+		// compute trace
+		int i = xs.length, j = ys.length;
+		while (i > 0 || j > 0) {
+			int op = T[i][j];
+			trace.add(0, op);
+			switch (op) {
+				case 0:
+				case 1:
+					i--; j--;
+					break;
+				case 2:
+					i--;
+					break;
+				case 3:
+					j--;
+					break;
 			}
 		}
 
 		return D[xs.length][ys.length];
 	}
 
-	private static Pair<Double, Integer> min(double[][] D, int i, int j, char[] xs, char[] ys, int[] cost) {
-		boolean match = (xs[i-1] == ys[j-1]);
-
-		double cd = D[i-1][j-1] + cost[match ? 0 : 1] + penalty(xs[i-1], ys[j-1]);
-		double ch = D[i-1][j] + cost[2] + (j < ys.length ? penalty(xs[i-1], ys[j]) : 0);
-		double cv = D[i][j-1] + cost[3] + (i < xs.length ? penalty(xs[i], ys[j-1]) : 0);
-
-		if (cd < ch && cd < cv) return Pair.of(cd, match ? 0 : 1);
-		else if (ch < cv && ch < cd) return Pair.of(ch, 2);
-		else return Pair.of(cv, 3);
-	}
-
 	private static String matrix(double[][] D) {
 		StringBuilder sb = new StringBuilder();
 		for (double[] di : D) {
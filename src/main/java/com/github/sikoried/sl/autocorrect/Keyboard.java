@@ -0,0 +1,143 @@
+package com.github.sikoried.sl.autocorrect;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Keyboard layout: the keys are given row by row, and the distance of two keys is the Euclidean
+ * distance of their (row, column) positions.  All chars not on the keyboard share one position.
+ *
+ * The distances are precomputed once per layout into a dense matrix over the keys, so a lookup
+ * is two index reads and one matrix read; use index() once per char and penalty(int, int) in
+ * inner loops.
+ */
+public final class Keyboard {
+	/** letters in US order plus umlauts, as used by Distances by default */
+	public static final Keyboard DEFAULT = new Keyboard(
+			"qwertyuiopü",
+			"asdfghjklöä",
+			"zxcvbnmß"
+	);
+
+	/** German layout, letters only; off-keyboard chars sit below the first column */
+	public static final Keyboard QWERTZ = new Keyboard(
+			"qwertzuiopüß",
+			"asdfghjklöä",
+			"yxcvbnm"
+	);
+
+	/** US layout, with digits, punctuation and space; off-keyboard chars sit at (-1, -1) */
+	public static final Keyboard QWERTY = new Keyboard(new String[] {
+			"1234567890-=",
+			"qwertyuiop[]\\",
+			"asdfghjkl;'",
+			"zxcvbnm,./",
+			" "
+	}, -1, -1);
+
+	private final String[] rows;
+
+	/** key index by char code, 0 for off-keyboard; chars beyond the array are off-keyboard */
+	private final int[] index;
+
+	/** position of each key; 0 is off-keyboard */
+	private final int[] row, col;
+
+	/** number of keys plus one for off-keyboard */
+	private final int size;
+
+	/** Euclidean distances, size x size; read directly by the Distances kernels */
+	final double[] distance;
+
+	/** Off-keyboard chars sit one row below the last, left of the first column. */
+	public Keyboard(String... rows) {
+		this(rows, rows.length, -1);
+	}
+
+	/**
+	 * @param rows keys, row by row; if a char appears twice, the first one counts
+	 * @param offRow row of all chars not on the keyboard
+	 * @param offCol column of all chars not on the keyboard
+	 */
+	public Keyboard(String[] rows, int offRow, int offCol) {
+		this.rows = rows.clone();
+
+		int max = 0, keys = 0;
+		for (String r : rows) {
+			keys += r.length();
+			for (int j = 0; j < r.length(); j++)
+				max = Math.max(max, r.charAt(j));
+		}
+
+		index = new int [max + 1];
+		row = new int [keys + 1];
+		col = new int [keys + 1];
+		row[0] = offRow;
+		col[0] = offCol;
+
+		int k = 1;
+		for (int i = 0; i < rows.length; i++) {
+			for (int j = 0; j < rows[i].length(); j++) {
+				char c = rows[i].charAt(j);
+				if (index[c] != 0)
+					continue;
+				index[c] = k;
+				row[k] = i;
+				col[k] = j;
+				k++;
+			}
+		}
+
+		size = k;
+		distance = new double [size * size];
+		for (int a = 0; a < size; a++) {
+			for (int b = 0; b < size; b++) {
+				int dr = row[a] - row[b], dc = col[a] - col[b];
+				distance[a * size + b] = Math.sqrt(dr * dr + dc * dc);
+			}
+		}
+	}
+
+	/** the rows of this layout */
+	public String[] rows() {
+		return rows.clone();
+	}
+
+	/** number of keys plus one (for off-keyboard); the matrices are size x size */
+	public int size() {
+		return size;
+	}
+
+	/** key index of c, 0 if not on the keyboard */
+	public int index(char c) {
+		return c < index.length ? index[c] : 0;
+	}
+
+	public int row(char c) {
+		return row[index(c)];
+	}
+
+	public int col(char c) {
+		return col[index(c)];
+	}
+
+	/** distance of two keys by their index */
+	public double penalty(int a, int b) {
+		return distance[a * size + b];
+	}
+
+	/** distance of the keys of two chars */
+	public double penalty(char a, char b) {
+		return distance[index(a) * size + index(b)];
+	}
+
+	/**
+	 * Dense matrix f(distance) over the key indices, eg. for a different weighting of the
+	 * distances; entry (a, b) is at a * size() + b
+	 */
+	public double[] matrix(DoubleUnaryOperator f) {
+		double[] m = new double [distance.length];
+		for (int i = 0; i < m.length; i++)
+			m[i] = f.applyAsDouble(distance[i]);
+		return m;
+	}
+}
@@ -0,0 +1,459 @@
+package com.github.sikoried.sl.autocorrect;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Word list with log-probabilities (and counts, if read from a corpus), as used by
+ * AutoCorrectSimple and live.ED: the words are packed into a CharArena, the probabilities and
+ * counts are primitive arrays, and exact lookups go through an open-addressing hash table of
+ * word IDs.
+ *
+ * A corpus (lines of word and count, UTF-8) is parsed once and cached in a little-endian binary
+ * file in a cache directory; later loads map that file instead of unzipping and parsing, see
+ * load().
+ */
+public final class Lexicon {
+	/**
+	 * binary format: magic, version, words, chars, table size, source length, total count;
+	 * source (UTF-8), offsets, chars, counts, table; all sections 8-byte aligned
+	 */
+	private static final int MAGIC = 0x4c455843;  // "LEXC"
+	private static final int VERSION = 2;
+	private static final int HEADER = 32;
+
+	/** system property with the cache directory of load(); empty to disable the cache */
+	public static final String CACHE_DIR_PROPERTY = "sl.lexicon.cache";
+
+	final CharArena words;
+
+	/** log-probabilities */
+	final double[] logp;
+
+	/** counts, or null if the lexicon was built from probabilities */
+	final long[] counts;
+
+	/** total count, the probabilities are relative to it; 0 without counts */
+	private final long total;
+
+	/** open addressing with linear probing: word ID + 1, or 0 if free; the size is a power of 2 */
+	private final int[] table;
+
+	private Lexicon(CharArena words, double[] logp, long[] counts, long total, int[] table) {
+		this.words = words;
+		this.logp = logp;
+		this.counts = counts;
+		this.total = total;
+		this.table = (table != null ? table : hash(words));
+	}
+
+	/** words and counts, the log-probabilities are the relative frequencies */
+	private Lexicon(CharArena words, long[] counts, long total, int[] table) {
+		this(words, relative(counts, total), counts, total, table);
+	}
+
+	/** lexicon in map order, eg. sorted for a TreeMap */
+	public static Lexicon fromLogp(Map<String, Double> logpw) {
+		String[] ws = new String [logpw.size()];
+		double[] logp = new double [ws.length];
+		int i = 0;
+		for (Map.Entry<String, Double> e : logpw.entrySet()) {
+			ws[i] = e.getKey();
+			logp[i++] = e.getValue();
+		}
+		return new Lexicon(new CharArena(ws), logp, null, 0, null);
+	}
+
+	/** lexicon in list order */
+	public static Lexicon fromCounts(List<Pair<String, Long>> vocab) {
+		String[] ws = new String [vocab.size()];
+		long[] counts = new long [ws.length];
+		for (int i = 0; i < ws.length; i++) {
+			ws[i] = vocab.get(i).getLeft();
+			counts[i] = vocab.get(i).getRight();
+		}
+		return new Lexicon(new CharArena(ws), counts, Arrays.stream(counts).sum(), null);
+	}
+
+	/**
+	 * Parse a corpus of lines "word count"; the words are sorted, if a word appears more than
+	 * once, the last count is kept (but all of them add to the total).
+	 */
+	public static Lexicon read(InputStream in) throws IOException {
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+
+		List<String> ws = new ArrayList<>();
+		long[] cs = new long [1024];
+		long total = 0;
+
+		String line;
+		while ((line = br.readLine()) != null) {
+			int a = 0, n = line.length();
+			while (a < n && Character.isWhitespace(line.charAt(a)))
+				a++;
+			if (a == n)
+				continue;
+
+			int b = a;
+			while (b < n && !Character.isWhitespace(line.charAt(b)))
+				b++;
+			int c = b;
+			while (c < n && Character.isWhitespace(line.charAt(c)))
+				c++;
+			int d = c;
+			while (d < n && !Character.isWhitespace(line.charAt(d)))
+				d++;
+
+			if (c == n)
+				throw new IOException("no count in line " + (ws.size() + 1) + ": " + line);
+
+			if (ws.size() == cs.length)
+				cs = Arrays.copyOf(cs, 2 * cs.length);
+			cs[ws.size()] = Long.parseLong(line.substring(c, d));
+			ws.add(line.substring(a, b));
+			total += cs[ws.size() - 1];
+		}
+
+		// sort by word; stable, so that the last of equal words comes last
+		final long[] counts = cs;
+		int[] order = IntStream.range(0, ws.size()).boxed()
+				.sorted(Comparator.comparing(ws::get))
+				.mapToInt(Integer::intValue)
+				.toArray();
+
+		List<String> sorted = new ArrayList<>(order.length);
+		long[] sortedCounts = new long [order.length];
+		for (int k = 0; k < order.length; k++) {
+			String w = ws.get(order[k]);
+			if (k + 1 < order.length && w.equals(ws.get(order[k + 1])))
+				continue;
+			sortedCounts[sorted.size()] = counts[order[k]];
+			sorted.add(w);
+		}
+
+		return new Lexicon(new CharArena(sorted), Arrays.copyOf(sortedCounts, sorted.size()), total, null);
+	}
+
+	/** parse the corpus from a zip file, where it must be the first entry */
+	public static Lexicon readZip(File zipFile, String fileName) throws IOException {
+		try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(zipFile), 1 << 16))) {
+			ZipEntry zipEntry = zis.getNextEntry();
+
+			// there should just be a single file
+			if (zipEntry == null || !zipEntry.getName().equals(fileName))
+				throw new IOException(fileName + " not first in " + zipFile.getAbsolutePath());
+
+			return read(zis);
+		}
+	}
+
+	/**
+	 * Load the corpus from the zip file, through the binary cache in the directory given by the
+	 * system property sl.lexicon.cache (default: .cache/sl-lexicon in user.home, so that no other
+	 * user can plant a cache to be mapped)
+	 */
+	public static Lexicon load(File zipFile, String fileName) throws IOException {
+		String dir = System.getProperty(CACHE_DIR_PROPERTY);
+		if (dir == null)
+			return load(zipFile, fileName, new File(System.getProperty("user.home"), ".cache" + File.separator + "sl-lexicon"));
+		return load(zipFile, fileName, dir.isEmpty() ? null : new File(dir));
+	}
+
+	/**
+	 * Load the corpus from the zip file, through a binary cache in cacheDir: if the cache is
+	 * missing, older than the zip file or of another entry, the corpus is parsed and the cache
+	 * (re)written.  The cache is written to a temporary file first and then renamed, so other
+	 * processes never see (or map) a partial one.  If it can't be written, eg. in a read-only
+	 * location, the lexicon is just not cached.
+	 *
+	 * @param cacheDir created if needed; null to always parse
+	 */
+	public static Lexicon load(File zipFile, String fileName, File cacheDir) throws IOException {
+		if (cacheDir == null)
+			return readZip(zipFile, fileName);
+
+		File cache = cacheFile(zipFile, fileName, cacheDir);
+		if (cache.exists() && cache.lastModified() >= zipFile.lastModified()) {
+			try {
+				return map(cache.toPath(), fileName);
+			} catch (IOException | RuntimeException e) {
+				// stale format, other entry or corrupt, parse again
+			}
+		}
+
+		Lexicon lex = readZip(zipFile, fileName);
+
+		Path tmp = null;
+		try {
+			Files.createDirectories(cacheDir.toPath());
+			tmp = Files.createTempFile(cacheDir.toPath(), cache.getName(), ".tmp");
+			lex.write(tmp, fileName);
+			Files.move(tmp, cache.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			if (tmp != null)
+				Files.deleteIfExists(tmp);
+		}
+		return lex;
+	}
+
+	/** cache file of an entry of the zip file: names of both, and a hash of the zip's path */
+	static File cacheFile(File zipFile, String fileName, File cacheDir) {
+		String path = zipFile.getAbsolutePath();
+		String name = zipFile.getName() + "-" + fileName.replaceAll("[^A-Za-z0-9._-]", "_")
+				+ "-" + Integer.toHexString(path.hashCode()) + ".lex";
+		return new File(cacheDir, name);
+	}
+
+	public int size() {
+		return words.size();
+	}
+
+	public String word(int id) {
+		return words.word(id);
+	}
+
+	public double logp(int id) {
+		return logp[id];
+	}
+
+	/** @throws IllegalStateException if the lexicon was built from probabilities */
+	public long count(int id) {
+		if (counts == null)
+			throw new IllegalStateException("lexicon has no counts");
+		return counts[id];
+	}
+
+	public boolean hasCounts() {
+		return counts != null;
+	}
+
+	/** the packed words, eg. for a DistanceEngine */
+	public CharArena getWords() {
+		return words;
+	}
+
+	/** @return the ID of w, or -1 if not in the lexicon */
+	public int find(CharSequence w) {
+		final int mask = table.length - 1;
+		for (int h = hash(w) & mask; ; h = (h + 1) & mask) {
+			int id = table[h] - 1;
+			if (id < 0 || equals(id, w))
+				return id;
+		}
+	}
+
+	public boolean contains(CharSequence w) {
+		return find(w) >= 0;
+	}
+
+	private boolean equals(int id, CharSequence w) {
+		final int off = words.offsets[id], len = words.offsets[id + 1] - off;
+		if (len != w.length())
+			return false;
+		for (int i = 0; i < len; i++)
+			if (words.chars[off + i] != w.charAt(i))
+				return false;
+		return true;
+	}
+
+	/** FNV-1a over the chars */
+	private static int hash(CharSequence w) {
+		int h = 0x811c9dc5;
+		for (int i = 0; i < w.length(); i++)
+			h = (h ^ w.charAt(i)) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(char[] cs, int from, int to) {
+		int h = 0x811c9dc5;
+		for (int i = from; i < to; i++)
+			h = (h ^ cs[i]) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	/** table at most half full; duplicate words keep the first ID */
+	private static int[] hash(CharArena words) {
+		int size = Integer.highestOneBit(Math.max(2, 2 * words.size() - 1)) << 1;
+		int[] table = new int [size];
+		final int mask = size - 1;
+		for (int id = 0; id < words.size(); id++) {
+			int h = hash(words.chars, words.offsets[id], words.offsets[id + 1]) & mask;
+			while (table[h] != 0 && !sameWord(words, table[h] - 1, id))
+				h = (h + 1) & mask;
+			if (table[h] == 0)
+				table[h] = id + 1;
+		}
+		return table;
+	}
+
+	private static boolean sameWord(CharArena words, int a, int b) {
+		int oa = words.offsets[a], ob = words.offsets[b], n = words.length(a);
+		if (n != words.length(b))
+			return false;
+		for (int i = 0; i < n; i++)
+			if (words.chars[oa + i] != words.chars[ob + i])
+				return false;
+		return true;
+	}
+
+	private static double[] relative(long[] counts, long total) {
+		double norm = Math.log(total);
+		double[] logp = new double [counts.length];
+		for (int i = 0; i < counts.length; i++)
+			logp[i] = Math.log(counts[i]) - norm;
+		return logp;
+	}
+
+	/** @throws IllegalStateException if the lexicon was built from probabilities */
+	public long getTotal() {
+		if (counts == null)
+			throw new IllegalStateException("lexicon has no counts");
+		return total;
+	}
+
+	/** write the lexicon (which needs counts) in the binary format read by map */
+	public void write(Path file) throws IOException {
+		write(file, "");
+	}
+
+	/**
+	 * write the lexicon (which needs counts) in the binary format read by map
+	 *
+	 * @param source name of the corpus, checked by map(file, source)
+	 */
+	public void write(Path file, String source) throws IOException {
+		if (counts == null)
+			throw new IllegalStateException("only lexica with counts can be written");
+
+		final int n = size(), nc = words.chars.length;
+		final byte[] src = source.getBytes(StandardCharsets.UTF_8);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = section(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(nc).putInt(table.length).putInt(src.length);
+			header.putLong(total);
+			write(ch, header);
+
+			ByteBuffer bb = section(padded(src.length));
+			bb.put(src);
+			write(ch, bb);
+
+			bb = section(padded(4L * (n + 1)));
+			bb.asIntBuffer().put(words.offsets);
+			write(ch, bb);
+
+			bb = section(padded(2L * nc));
+			bb.asCharBuffer().put(words.chars);
+			write(ch, bb);
+
+			bb = section(8L * n);
+			bb.asLongBuffer().put(counts);
+			write(ch, bb);
+
+			bb = section(padded(4L * table.length));
+			bb.asIntBuffer().put(table);
+			write(ch, bb);
+		}
+	}
+
+	/**
+	 * Map a binary lexicon and copy the sections to the arrays in bulk; there is no parsing,
+	 * hashing or sorting, only the log-probabilities are computed from the counts.
+	 */
+	public static Lexicon map(Path file) throws IOException {
+		return map(file, null);
+	}
+
+	/**
+	 * Map a binary lexicon, see map(file)
+	 *
+	 * @param source name of the corpus it must have been written from; null for any
+	 */
+	public static Lexicon map(Path file, String source) throws IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (ch.size() < HEADER)
+				throw new IOException(file + " is truncated or corrupt");
+
+			ByteBuffer header = map(ch, 0, HEADER);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+				throw new IOException(file + " is not a binary lexicon (version " + VERSION + ")");
+
+			final int n = header.getInt(8), nc = header.getInt(12), ts = header.getInt(16), ns = header.getInt(20);
+			final long total = header.getLong(24);
+			long pos = HEADER;
+
+			// a full table would make find() probe forever
+			if (n < 0 || nc < 0 || ts <= n || Integer.bitCount(ts) != 1)
+				throw new IOException(file + " is truncated or corrupt");
+
+			if (ns < 0 || pos + padded(ns) > ch.size())
+				throw new IOException(file + " is truncated or corrupt");
+			byte[] src = new byte [ns];
+			map(ch, pos, ns).get(src);
+			if (source != null && !source.equals(new String(src, StandardCharsets.UTF_8)))
+				throw new IOException(file + " is a lexicon of " + new String(src, StandardCharsets.UTF_8) + ", not " + source);
+			pos += padded(ns);
+
+			if (pos + padded(4L * (n + 1)) + padded(2L * nc) + 8L * n + padded(4L * ts) != ch.size())
+				throw new IOException(file + " is truncated or corrupt");
+
+			int[] offsets = new int [n + 1];
+			map(ch, pos, 4L * (n + 1)).asIntBuffer().get(offsets);
+			pos += padded(4L * (n + 1));
+
+			char[] chars = new char [nc];
+			map(ch, pos, 2L * nc).asCharBuffer().get(chars);
+			pos += padded(2L * nc);
+
+			long[] counts = new long [n];
+			map(ch, pos, 8L * n).asLongBuffer().get(counts);
+			pos += 8L * n;
+
+			int[] table = new int [ts];
+			map(ch, pos, 4L * ts).asIntBuffer().get(table);
+
+			if (offsets[0] != 0 || offsets[n] != nc)
+				throw new IOException(file + " is truncated or corrupt");
+			for (int i = 0; i < n; i++)
+				if (offsets[i] > offsets[i + 1])
+					throw new IOException(file + " is truncated or corrupt");
+			for (int id : table)
+				if (id < 0 || id > n)
+					throw new IOException(file + " is truncated or corrupt");
+
+			return new Lexicon(new CharArena(chars, offsets), counts, total, table);
+		}
+	}
+
+	private static ByteBuffer map(FileChannel ch, long pos, long size) throws IOException {
+		return ch.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static ByteBuffer section(long size) {
+		return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** keep the sections 8-byte aligned */
+	private static long padded(long size) {
+		return (size + 7) & ~7L;
+	}
+
+	private static void write(FileChannel ch, ByteBuffer bb) throws IOException {
+		bb.rewind();
+		while (bb.hasRemaining())
+			ch.write(bb);
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.sikoried.sl.autocorrect;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded result cache for suggestions.  Entries are kept in LRU order; with TinyLFU
+ * admission (Einziger et al.), a new entry only replaces the least recently used one if it was
+ * asked for more often, as estimated by a small count-min sketch that is halved periodically.
+ * This keeps the frequent misspellings cached while one-off queries pass through.
+ *
+ * The map is guarded by a lock, but values are computed outside of it, so two threads that miss
+ * the same key at the same time may both compute it (the results are equal anyway).
+ */
+public class SuggestionCache<K, V> {
+	public enum Policy {
+		/** always admit, evict the least recently used */
+		LRU,
+
+		/** admit only if more frequent than the least recently used */
+		TINY_LFU
+	}
+
+	/**
+	 * Cache key of a suggestion query: method, query and parameters; the scope (eg. the index
+	 * queried) is compared by identity.
+	 */
+	public static final class Key {
+		private final String method;
+		private final String query;
+		private final int m, n;
+		private final double lambda, z;
+		private final Object scope;
+
+		public Key(String method, String query, int m, int n, double lambda, double z) {
+			this(method, query, m, n, lambda, z, null);
+		}
+
+		public Key(String method, String query, int m, int n, double lambda, double z, Object scope) {
+			this.method = method;
+			this.query = query;
+			this.m = m;
+			this.n = n;
+			this.lambda = lambda;
+			this.z = z;
+			this.scope = scope;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return m == k.m && n == k.n
+					&& Double.compare(lambda, k.lambda) == 0 && Double.compare(z, k.z) == 0
+					&& scope == k.scope && method.equals(k.method) && query.equals(k.query);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(method, query, m, n, lambda, z, System.identityHashCode(scope));
+		}
+
+		@Override
+		public String toString() {
+			return method + "(" + query + ", " + m + ", " + n + ", " + lambda + ", " + z + ")";
+		}
+	}
+
+	private final int capacity;
+	private final Policy policy;
+	private final LinkedHashMap<K, V> map;
+
+	/** count-min sketch: 4 rows of 4-bit counters (in ints, for simplicity) */
+	private final int[] sketch;
+	private final int mask;
+	private final int sampleSize;
+	private int samples;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public SuggestionCache(int capacity) {
+		this(capacity, Policy.TINY_LFU);
+	}
+
+	public SuggestionCache(int capacity, Policy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.capacity = capacity;
+		this.policy = policy;
+		this.map = new LinkedHashMap<>(16, 0.75f, true);
+
+		int width = Integer.highestOneBit(Math.max(16, 4 * capacity - 1)) << 1;
+		this.sketch = new int [4 * width];
+		this.mask = width - 1;
+		this.sampleSize = 10 * capacity;
+	}
+
+	/**
+	 * The cached value for key, or compute (and maybe cache) it
+	 */
+	public V get(K key, Function<? super K, ? extends V> compute) {
+		synchronized (this) {
+			record(key);
+			V v = map.get(key);
+			if (v != null) {
+				hits.increment();
+				return v;
+			}
+			misses.increment();
+		}
+
+		V v = compute.apply(key);
+		put(key, v);
+		return v;
+	}
+
+	/** the cached value, or null; counts as a hit or miss */
+	public synchronized V getIfPresent(K key) {
+		record(key);
+		V v = map.get(key);
+		if (v != null)
+			hits.increment();
+		else
+			misses.increment();
+		return v;
+	}
+
+	/** cache the value, if admitted by the policy; null values are not cached */
+	public synchronized void put(K key, V value) {
+		if (value == null)
+			return;
+
+		if (map.containsKey(key) || map.size() < capacity) {
+			map.put(key, value);
+			return;
+		}
+
+		Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+		K victim = it.next().getKey();
+		if (policy == Policy.TINY_LFU && frequency(key) <= frequency(victim))
+			return;
+
+		it.remove();
+		evictions.increment();
+		map.put(key, value);
+	}
+
+	/** drop all entries (eg. when the lexicon is reloaded); the counters and frequencies remain */
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public long hits() {
+		return hits.sum();
+	}
+
+	public long misses() {
+		return misses.sum();
+	}
+
+	public long evictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "SuggestionCache(" + policy + ", " + size() + "/" + capacity + ", hits=" + hits()
+				+ ", misses=" + misses() + ", evictions=" + evictions() + ")";
+	}
+
+	private static int index(int h, int row) {
+		h = (h + row * 0x9e3779b9) * 0x85ebca6b;
+		return h ^ (h >>> 15);
+	}
+
+	private void record(K key) {
+		final int h = key.hashCode(), width = mask + 1;
+		for (int r = 0; r < 4; r++) {
+			int i = r * width + (index(h, r) & mask);
+			if (sketch[i] < 15)
+				sketch[i]++;
+		}
+
+		// aging: halve all counters, so the frequencies follow the recent traffic
+		if (++samples == sampleSize) {
+			for (int i = 0; i < sketch.length; i++)
+				sketch[i] >>= 1;
+			samples /= 2;
+		}
+	}
+
+	private int frequency(K key) {
+		final int h = key.hashCode(), width = mask + 1;
+		int f = Integer.MAX_VALUE;
+		for (int r = 0; r < 4; r++)
+			f = Math.min(f, sketch[r * width + (index(h, r) & mask)]);
+		return f;
+	}
+}
@@ -0,0 +1,123 @@
+package com.github.sikoried.sl.autocorrect;
+
+/**
+ * Bounded min-heap that keeps the k best (highest score) items, identified by int ids.
+ * Storage is primitive, so offering an item does not allocate.  Ties are broken by id
+ * (smaller id wins), so the result does not depend on the order items are offered.
+ */
+public class TopK {
+	private final int k;
+	private final int[] ids;
+	private final double[] scores;
+	private int size;
+
+	public TopK(int k) {
+		this.k = k;
+		this.ids = new int [k];
+		this.scores = new double [k];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == k;
+	}
+
+	/**
+	 * Score of the worst item kept; items need to beat this once the heap is full.
+	 * @return worst score, or -Infinity if the heap is not full yet (+Infinity if k is 0)
+	 */
+	public double threshold() {
+		if (size < k)
+			return Double.NEGATIVE_INFINITY;
+		return k == 0 ? Double.POSITIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * Offer an item
+	 * @param id item id
+	 * @param score item score (higher is better)
+	 * @return true if the item was kept
+	 */
+	public boolean offer(int id, double score) {
+		if (size < k) {
+			ids[size] = id;
+			scores[size] = score;
+			up(size++);
+			return true;
+		}
+
+		if (k == 0 || !better(id, score, 0))
+			return false;
+
+		ids[0] = id;
+		scores[0] = score;
+		down(0, size);
+		return true;
+	}
+
+	/**
+	 * Sort the kept items best first; afterwards, use id(i) and score(i), i &lt; size().
+	 * The heap must be cleared before offering new items.
+	 */
+	public void sort() {
+		// heap sort: move the current worst to the back
+		for (int n = size - 1; n > 0; n--) {
+			swap(0, n);
+			down(0, n);
+		}
+	}
+
+	public int id(int i) {
+		return ids[i];
+	}
+
+	public double score(int i) {
+		return scores[i];
+	}
+
+	/** is (id, score) better than the item at position j? */
+	private boolean better(int id, double score, int j) {
+		return score > scores[j] || (score == scores[j] && id < ids[j]);
+	}
+
+	private void up(int i) {
+		while (i > 0) {
+			int p = (i - 1) / 2;
+			if (!better(ids[p], scores[p], i))
+				break;
+			swap(i, p);
+			i = p;
+		}
+	}
+
+	private void down(int i, int n) {
+		while (true) {
+			int l = 2 * i + 1, r = l + 1, m = i;
+			if (l < n && better(ids[m], scores[m], l))
+				m = l;
+			if (r < n && better(ids[m], scores[m], r))
+				m = r;
+			if (m == i)
+				return;
+			swap(i, m);
+			i = m;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int t = ids[i];
+		ids[i] = ids[j];
+		ids[j] = t;
+
+		double s = scores[i];
+		scores[i] = scores[j];
+		scores[j] = s;
+	}
+}
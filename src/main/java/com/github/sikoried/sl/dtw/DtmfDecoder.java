@@ -10,17 +10,16 @@ import com.github.sikoried.jstk.sampled.AudioFileReader;
 import com.github.sikoried.jstk.sampled.AudioSource;
 import com.github.sikoried.jstk.sampled.RawAudioFormat;
 import com.github.sikoried.jstk.util.ArrayUtils;
-import com.github.sikoried.jstk.util.Distances;
 import com.github.sikoried.jstk.util.Various;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.sound.sampled.UnsupportedAudioFileException;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Stack;
 
 public class DtmfDecoder {
+	private static Logger logger = LogManager.getLogger(DtmfDecoder.class);
+
 	static final char[] labels = "_123A456B789C*0#D".toCharArray();
 	static final double[][] states = new double[17][9];
 
@@ -36,107 +35,27 @@ public class DtmfDecoder {
 		}
 	}
 
-	private static int min(double[] a) {
-		int p = 0;
-		double v = a[0];
-
-		for (int i = 1; i < a.length; i++) {
-			if (a[i] < v) {
-				p = i;
-				v = a[i];
-			}
-		}
-
-		return p;
-	}
-
+	/**
+	 * Decode the whole stream, see StreamingDtmfDecoder (and DtmfDecoderEngine for many streams)
+	 *
+	 * @param fold digits only, instead of one label per frame
+	 */
 	public static String decode(FrameSource fs, boolean fold) throws IOException {
-		Logger logger = LogManager.getLogger(DtmfDecoder.class + Thread.currentThread().getName());
-
-//		for (double[] s : states)
-//			logger.info(Arrays.toString(s));
-
-
 		double[] buf = new double [fs.getFrameSize()];
 		assert(buf.length == states[0].length);
 
-		final int S = states.length;
-
-		Stack<int[]> trace = new Stack<>();
-		double[] costs = new double [S];
-
-		// start trace at silence (0)
-		trace.push(new int [S]);
-
-		// for debug purposes: maintain fwd-decisions
-		StringBuilder fwd_hyp = new StringBuilder();
-
-		// consume all frames in order...
-		while (fs.read(buf)) {
-			buf[0] = buf[0] / 4640.; // max energy for this synthesizer
-			int[] mins = new int [S];
-
-			// for debug puroses, find min in forward-pass
-			int fw_p = 0;
-			double fw_v = Double.MAX_VALUE;
-
-			// compute distance to states, find min
-			for (int i = 0; i < S; i++) {
-				double d = Distances.euclidean(buf, states[i]);
-
-				// find the minimum; analogy: substitute with what letter?
-				int p = 0;
-				double v = costs[0] + d;
-				for (int j = 1; j < S; ++j) {
-					if (costs[j] + d < v) {
-						p = j;
-						v = costs[j] + d;
-					}
-				}
-
-				mins[i] = p;
-				costs[i] = v;
-
-				if (v < fw_v)
-					fw_p = p;
-			}
-
-			fwd_hyp.append(labels[fw_p]);
-
-//			logger.info(Arrays.toString(dists));
-//			logger.info(Arrays.toString(costs));
-//			logger.info(Arrays.toString(mins));
-
-			trace.push(mins);
-		}
-
-		logger.info("forward pass: " + fwd_hyp);
-
-		// do backtrace
+		StreamingDtmfDecoder decoder = new StreamingDtmfDecoder(fold);
 		StringBuilder sb = new StringBuilder();
 
-		int i = min(costs);
-		sb.append(labels[i]);
-		while (trace.size() > 0) {
-			i = trace.pop()[i];
-			sb.append(labels[i]);
-		}
+		// consume all frames in order; the labels come out as soon as they are certain
+		while (fs.read(buf))
+			sb.append(decoder.accept(buf));
 
-		String seq = sb.reverse().toString();
-
-		if (fold) {
-			sb = new StringBuilder();
-			char c = 0;
-			for (char z : seq.toCharArray()) {
-				if (c != z) {
-					sb.append(z);
-					c = z;
-				}
-			}
-			seq = sb.toString().replaceAll("" + labels[0], "");
-		}
+		sb.append(decoder.finish());
+
+		logger.info("decoded " + decoder.getFrames() + " frames");
 
-		return seq;
+		return sb.toString();
 	}
 
 	public static void main(String[] args) throws UnsupportedAudioFileException, MalformedParameterStringException, IOException {
@@ -0,0 +1,492 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.jstk.io.FrameSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decodes many DTMF channels at once.  Each channel owns a StreamingDtmfDecoder (costs and
+ * backpointer ring, recycled when the channel closes) and a bounded queue of frames; whenever
+ * frames are waiting, the channel runs as a task on the shared executor, at most BATCH frames at
+ * a time so that busy channels do not starve the others.  A channel is never decoded by two threads at
+ * once, so the decoders need no locking.
+ *
+ * Every channel keeps its own metrics: frames per second, the decoding latency (frames whose
+ * labels are still open) and the queueing latency (time between accept and decoding).
+ */
+public class DtmfDecoderEngine implements AutoCloseable {
+	private static Logger logger = LogManager.getLogger(DtmfDecoderEngine.class);
+
+	/** frames per task, before the channel yields to the others */
+	public static final int BATCH = 64;
+
+	/** default queue size of a channel, in frames */
+	public static final int QUEUE = 4 * BATCH;
+
+	private final Executor executor;
+
+	/** the executor if the engine created it (and thus shuts it down) */
+	private final ExecutorService owned;
+
+	private final boolean fold;
+	private final int capacity;
+	private final int queueSize;
+
+	private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<StreamingDtmfDecoder> decoders = new ConcurrentLinkedQueue<>();
+	private final LongAdder frames = new LongAdder();
+
+	/**
+	 * Engine on a pool of its own
+	 *
+	 * @param threads pool size
+	 * @param fold emit digits instead of one label per frame
+	 */
+	public DtmfDecoderEngine(int threads, boolean fold) {
+		this(Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "dtmf");
+			t.setDaemon(true);
+			return t;
+		}), true, fold, StreamingDtmfDecoder.CAPACITY, QUEUE);
+	}
+
+	/**
+	 * Engine on a shared executor, which stays up when the engine is closed
+	 *
+	 * @param fold emit digits instead of one label per frame
+	 * @param capacity ring size of the decoders, ie. maximum latency in frames
+	 */
+	public DtmfDecoderEngine(Executor executor, boolean fold, int capacity) {
+		this(executor, false, fold, capacity, QUEUE);
+	}
+
+	/**
+	 * @param queueSize frames a channel queues before accept waits (and offer fails)
+	 */
+	public DtmfDecoderEngine(Executor executor, boolean fold, int capacity, int queueSize) {
+		this(executor, false, fold, capacity, queueSize);
+	}
+
+	private DtmfDecoderEngine(Executor executor, boolean owned, boolean fold, int capacity, int queueSize) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		if (queueSize < 1)
+			throw new IllegalArgumentException("queue size must be positive");
+
+		this.executor = executor;
+		this.owned = owned ? (ExecutorService) executor : null;
+		this.fold = fold;
+		this.capacity = capacity;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Open a channel
+	 *
+	 * @param name unique among the open channels
+	 * @param sink receives the labels as they are decided, in order (on an executor thread); may be null
+	 */
+	public Channel open(String name, Consumer<String> sink) {
+		return open(name, sink, null);
+	}
+
+	private Channel open(String name, Consumer<String> sink, FrameSource source) {
+		StreamingDtmfDecoder decoder = decoders.poll();
+		if (decoder == null)
+			decoder = new StreamingDtmfDecoder(fold, capacity);
+		else
+			decoder.reset();
+
+		Channel c = new Channel(name, decoder, sink, source);
+		if (channels.putIfAbsent(name, c) != null) {
+			recycle(decoder);
+			throw new IllegalArgumentException("channel " + name + " is already open");
+		}
+		return c;
+	}
+
+	/**
+	 * Decode the whole stream on the executor, as DtmfDecoder.decode does; the channel reads
+	 * BATCH frames at a time, so a stream takes no more memory than its decoder.
+	 *
+	 * @return the labels (or digits); fails if reading the frames fails
+	 */
+	public CompletableFuture<String> decode(String name, FrameSource fs) {
+		Channel c = open(name, null, fs);
+		c.schedule();
+		return c.getResult();
+	}
+
+	/** open channels */
+	public Collection<Channel> getChannels() {
+		return new ArrayList<>(channels.values());
+	}
+
+	public Channel getChannel(String name) {
+		return channels.get(name);
+	}
+
+	/** frames decoded over all channels */
+	public long getFrames() {
+		return frames.sum();
+	}
+
+	/** decoders kept for reuse */
+	int getIdleDecoders() {
+		return decoders.size();
+	}
+
+	/** keep a decoder for reuse by a later channel */
+	void recycle(StreamingDtmfDecoder decoder) {
+		decoders.add(decoder);
+	}
+
+	/** shuts down the executor if the engine created it; open channels are not waited for */
+	@Override
+	public void close() {
+		if (owned != null)
+			owned.shutdown();
+	}
+
+	/** a queued frame; recycled by its channel */
+	private static final class Frame {
+		final double[] x;
+		long offered;
+
+		Frame(int dim) {
+			x = new double [dim];
+		}
+	}
+
+	/**
+	 * One stream of frames, either pushed or pulled.  Pushed frames are accepted in order (from one
+	 * thread at a time) into a bounded queue, and the channel is closed after the last one; a
+	 * channel of decode(name, fs) reads its frames itself, at most BATCH per task, so nothing is
+	 * read ahead of the decoder.  Decoding happens on the engine's executor.
+	 */
+	public final class Channel {
+		private final String name;
+		private final Consumer<String> sink;
+		private final CompletableFuture<String> result = new CompletableFuture<>();
+
+		/** pulled frames come from here; null if pushed */
+		private final FrameSource source;
+		private double[] buf;
+
+		private final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+		private final ConcurrentLinkedQueue<Frame> spare = new ConcurrentLinkedQueue<>();
+
+		/** free places in the queue */
+		private final Semaphore free = new Semaphore(queueSize);
+
+		/** a task is scheduled (or running) for this channel */
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		/** no more frames; only set by the producer */
+		private volatile boolean closed;
+
+		/** marks the end of the stream in the queue */
+		private final Frame end = new Frame(0);
+
+		/** only touched by the task that runs the channel */
+		private StreamingDtmfDecoder decoder;
+		private final StringBuilder output = new StringBuilder();
+
+		/** metrics: written by the task that runs the channel (maxQueued by the producer) */
+		private final long opened = System.nanoTime();
+		private volatile long decoded;
+		private volatile long last;
+		private volatile int latency, maxLatency, maxQueued;
+		private volatile long queueNanos, maxQueueNanos;
+
+		private Channel(String name, StreamingDtmfDecoder decoder, Consumer<String> sink, FrameSource source) {
+			this.name = name;
+			this.decoder = decoder;
+			this.sink = sink;
+			this.source = source;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Queue a frame (it is copied) for decoding; waits while the queue is full.  Don't call
+		 * this from a task of the engine's executor, which may be the one to empty the queue.
+		 *
+		 * @throws IllegalArgumentException if the frame is not of StreamingDtmfDecoder.FRAME_SIZE
+		 * @throws IllegalStateException if the channel is closed or failed
+		 */
+		public void accept(double[] frame) throws InterruptedException {
+			check(frame);
+			free.acquire();
+			enqueue(frame);
+		}
+
+		/**
+		 * Queue a frame (it is copied) for decoding, unless the queue is full
+		 *
+		 * @return false if the frame was not queued
+		 * @throws IllegalArgumentException if the frame is not of StreamingDtmfDecoder.FRAME_SIZE
+		 * @throws IllegalStateException if the channel is closed or failed
+		 */
+		public boolean offer(double[] frame) {
+			check(frame);
+			if (!free.tryAcquire())
+				return false;
+			enqueue(frame);
+			return true;
+		}
+
+		private void check(double[] frame) {
+			if (source != null)
+				throw new IllegalStateException("channel " + name + " reads its own frames");
+			if (closed)
+				throw new IllegalStateException("channel " + name + " is closed");
+			if (result.isCompletedExceptionally())
+				throw new IllegalStateException("channel " + name + " failed");
+			if (frame.length != StreamingDtmfDecoder.FRAME_SIZE)
+				throw new IllegalArgumentException("frame of " + frame.length + " values, expected " + StreamingDtmfDecoder.FRAME_SIZE);
+		}
+
+		private void enqueue(double[] frame) {
+			Frame f = spare.poll();
+			if (f == null)
+				f = new Frame(frame.length);
+			System.arraycopy(frame, 0, f.x, 0, frame.length);
+
+			int q = queueSize - free.availablePermits();
+			if (q > maxQueued)
+				maxQueued = q;
+
+			f.offered = System.nanoTime();
+			queue.add(f);
+			schedule();
+		}
+
+		/** end of stream: the result completes once the queued frames are decoded */
+		public CompletableFuture<String> close() {
+			if (source != null)
+				throw new IllegalStateException("channel " + name + " reads its own frames");
+			if (closed)
+				return result;
+
+			closed = true;
+			queue.add(end);
+			schedule();
+			return result;
+		}
+
+		/** everything decoded on this channel, once it is closed */
+		public CompletableFuture<String> getResult() {
+			return result;
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true))
+				executor.execute(this::run);
+		}
+
+		/** decode up to BATCH frames, then yield the thread */
+		private void run() {
+			if (source != null) {
+				pull();
+				return;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			Frame f = null;
+			int k = 0;
+			try {
+				for (; k < BATCH; k++) {
+					f = queue.poll();
+					if (f == null || f == end)
+						break;
+
+					long wait = System.nanoTime() - f.offered;
+					sb.append(decoder.accept(f.x));
+					spare.add(f);
+					free.release();
+					decoded(wait);
+				}
+			} catch (RuntimeException e) {
+				// the frame that failed is dropped, and the rest of the stream with it (see abort)
+				free.release();
+				frames.add(k);
+				deliver(sb);
+				abort(e);
+				return;
+			}
+
+			frames.add(k);
+			if (f == end) {
+				try {
+					finish(sb);
+				} catch (RuntimeException e) {
+					abort(e);
+				}
+				return;
+			}
+			deliver(sb);
+
+			// a frame may have come in after the last poll, but before this
+			scheduled.set(false);
+			if (!queue.isEmpty())
+				schedule();
+		}
+
+		/** read and decode up to BATCH frames, then go to the back of the executor's queue */
+		private void pull() {
+			StringBuilder sb = new StringBuilder();
+			int k = 0;
+			try {
+				if (buf == null)
+					buf = new double [source.getFrameSize()];
+
+				for (; k < BATCH; k++) {
+					if (!source.read(buf)) {
+						frames.add(k);
+						finish(sb);
+						return;
+					}
+					sb.append(decoder.accept(buf));
+					decoded(0);
+				}
+			} catch (IOException | RuntimeException e) {
+				frames.add(k);
+				deliver(sb);
+				abort(e);
+				return;
+			}
+
+			frames.add(k);
+			deliver(sb);
+
+			try {
+				executor.execute(this::run);
+			} catch (RejectedExecutionException e) {
+				abort(e);
+			}
+		}
+
+		/** metrics of a decoded frame; single writer, so no lost updates */
+		private void decoded(long wait) {
+			queueNanos += wait;
+			if (wait > maxQueueNanos)
+				maxQueueNanos = wait;
+			latency = decoder.getPending();
+			if (latency > maxLatency)
+				maxLatency = latency;
+			decoded++;
+			last = System.nanoTime();
+		}
+
+		private void finish(StringBuilder sb) {
+			sb.append(decoder.finish());
+			latency = 0;
+			deliver(sb);
+			release();
+			result.complete(output.toString());
+		}
+
+		/**
+		 * Fail the channel; the channel stays scheduled, so it never runs again.  The frames still
+		 * queued are dropped, which wakes a producer waiting for room (its next frame is refused).
+		 */
+		private void abort(Throwable e) {
+			logger.error("channel " + name + " failed: " + e);
+			release();
+			result.completeExceptionally(e);
+
+			for (Frame f; (f = queue.poll()) != null; ) {
+				if (f != end)
+					free.release();
+			}
+		}
+
+		private void release() {
+			channels.remove(name, this);
+			recycle(decoder);
+			decoder = null;
+			buf = null;
+			spare.clear();
+		}
+
+		private void deliver(StringBuilder sb) {
+			if (sb.length() == 0)
+				return;
+
+			String s = sb.toString();
+			output.append(s);
+			if (sink != null) {
+				try {
+					sink.accept(s);
+				} catch (RuntimeException e) {
+					logger.error("sink of channel " + name + " failed: " + e);
+				}
+			}
+		}
+
+		/** frames decoded so far */
+		public long getFrames() {
+			return decoded;
+		}
+
+		/** decoded frames per second of wall time since the channel was opened */
+		public double getFramesPerSecond() {
+			long d = decoded;
+			long t = last - opened;
+			return d == 0 || t <= 0 ? 0 : d * 1e9 / t;
+		}
+
+		/** frames whose labels are still open, ie. the current decoding latency */
+		public int getLatency() {
+			return latency;
+		}
+
+		public int getMaxLatency() {
+			return maxLatency;
+		}
+
+		/** frames accepted but not yet decoded */
+		public int getQueued() {
+			return queueSize - free.availablePermits();
+		}
+
+		/** most frames ever waiting in the queue; at most the engine's queue size */
+		public int getMaxQueued() {
+			return maxQueued;
+		}
+
+		/** mean time (in nanoseconds) a frame waited in the queue */
+		public double getMeanQueueNanos() {
+			long d = decoded;
+			return d == 0 ? 0 : (double) queueNanos / d;
+		}
+
+		public long getMaxQueueNanos() {
+			return maxQueueNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d frames, %.0f frames/s, latency %d (max %d) frames, queued %.3f ms (max %.3f ms)",
+					name, decoded, getFramesPerSecond(), latency, maxLatency, getMeanQueueNanos() / 1e6, maxQueueNanos / 1e6);
+		}
+	}
+}
@@ -0,0 +1,310 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.sl.io.FrameMatrix;
+
+/**
+ * Dynamic time warping with the recursion of Erkenner.distance (or the symmetric one), but on
+ * two cost rows and with an optional global constraint: a Sakoe-Chiba band of w frames around
+ * the (length-normalized) diagonal, or the Itakura parallelogram (slopes between 1/2 and 2).
+ * Each local (euclidean) distance is computed exactly once, so a band reduces the cost from
+ * O(n*m) to O(n*w).
+ *
+ * Cells outside the constraint are infinite; if the constraint admits no path (eg. Itakura with
+ * one sequence more than twice as long as the other), the distance is +Infinity.
+ *
+ * An engine keeps scratch rows, so it is not thread-safe; use one per thread.
+ */
+public final class DtwEngine {
+	public enum Constraint {
+		/** full matrix */
+		NONE,
+
+		/** |j - i*(m-1)/(n-1)| <= width */
+		SAKOE_CHIBA,
+
+		/** slopes between 1/2 and 2, anchored at both corners */
+		ITAKURA
+	}
+
+	public enum Steps {
+		/**
+		 * Erkenner.distance: the first row and column are not cumulated, and the horizontal and
+		 * vertical steps add the distance of the cell ahead
+		 */
+		ERKENNER,
+
+		/**
+		 * D[i][j] = d(i, j) + min(D[i-1][j-1], D[i-1][j], D[i][j-1]) from (0, 0); every path
+		 * visits each row (and column) at least once, which is what the lower bounds build on
+		 */
+		SYMMETRIC
+	}
+
+	private final Constraint constraint;
+	private final int width;
+	private final Steps steps;
+
+	/** scratch: window bounds per row, cost rows, local distances of the current and next row */
+	int[] lo = new int [32], hi = new int [32];
+	private double[] prev = new double [32], curr = new double [32];
+	private double[] dcurr = new double [32], dnext = new double [32];
+
+	/** unconstrained, same results as Erkenner.distance */
+	public DtwEngine() {
+		this(Constraint.NONE, 0);
+	}
+
+	public DtwEngine(Constraint constraint, int width) {
+		this(constraint, width, Steps.ERKENNER);
+	}
+
+	public DtwEngine(Constraint constraint, int width, Steps steps) {
+		if (constraint == Constraint.SAKOE_CHIBA && width < 0)
+			throw new IllegalArgumentException("band width must be non-negative");
+
+		this.constraint = constraint;
+		this.width = width;
+		this.steps = steps;
+	}
+
+	public static DtwEngine sakoeChiba(int width) {
+		return new DtwEngine(Constraint.SAKOE_CHIBA, width);
+	}
+
+	public static DtwEngine itakura() {
+		return new DtwEngine(Constraint.ITAKURA, 0);
+	}
+
+	public Constraint getConstraint() {
+		return constraint;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public Steps getSteps() {
+		return steps;
+	}
+
+	private void fit(int n, int m) {
+		if (lo.length < n) {
+			int k = Math.max(n, 2 * lo.length);
+			lo = new int [k];
+			hi = new int [k];
+		}
+		if (prev.length < m) {
+			int k = Math.max(m, 2 * prev.length);
+			prev = new double [k];
+			curr = new double [k];
+			dcurr = new double [k];
+			dnext = new double [k];
+		}
+	}
+
+	/**
+	 * Compute the window [lo[i], hi[i]] of each row; the windows are non-decreasing and
+	 * overlap (or touch) from row to row, so that a path through all rows exists.
+	 *
+	 * @return false if the constraint admits no path
+	 */
+	boolean window(int n, int m) {
+		fit(n, m);
+
+		// slope of the diagonal
+		final double r = (n > 1 ? (m - 1.) / (n - 1.) : 0.);
+
+		for (int i = 0; i < n; i++) {
+			double l, h;
+			switch (constraint) {
+				case SAKOE_CHIBA:
+					l = Math.floor(i * r) - width;
+					h = Math.ceil(i * r) + width;
+					break;
+				case ITAKURA:
+					l = Math.floor(Math.max(i / 2., (m - 1) - 2. * (n - 1 - i)));
+					h = Math.ceil(Math.min(2. * i, (m - 1) - (n - 1 - i) / 2.));
+					break;
+				default:
+					l = 0;
+					h = m - 1;
+			}
+
+			lo[i] = (int) Math.max(0, Math.min(l, m - 1));
+			hi[i] = (int) Math.max(lo[i], Math.min(h, m - 1));
+		}
+
+		if (constraint == Constraint.ITAKURA && (m - 1 > 2 * (n - 1) || n - 1 > 2 * (m - 1)))
+			return false;
+
+		// the first and last cell must be inside; the windows must connect
+		lo[0] = 0;
+		hi[n - 1] = m - 1;
+		for (int i = 1; i < n; i++)
+			lo[i] = Math.max(lo[i], lo[i - 1]);
+		for (int i = n - 2; i >= 0; i--) {
+			hi[i] = Math.min(hi[i], hi[i + 1]);
+			if (hi[i] < lo[i + 1] - 1)
+				hi[i] = lo[i + 1] - 1;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Last column of row i with a local distance needed: its own window plus one (horizontal
+	 * step), and the window of the previous row (its vertical step).  The first is lo[i-1], so
+	 * each row is computed exactly once over [lo[i-1], span(i)].
+	 */
+	private int span(int i, int m) {
+		int s = Math.min(m - 1, hi[i] + 1);
+		return i > 0 ? Math.max(s, hi[i - 1]) : s;
+	}
+
+	/** local distances of frame i of xs to frames from..to of ys into d */
+	private static void local(FrameMatrix xs, int i, FrameMatrix ys, int from, int to, double[] d) {
+		for (int j = from; j <= to; j++)
+			d[j] = xs.euclidean(i, ys, j);
+	}
+
+	/**
+	 * DTW distance of xs and ys (sequences of feature frames); Double.MAX_VALUE if either is
+	 * empty, +Infinity if the constraint admits no path.
+	 */
+	public double distance(double[][] xs, double[][] ys) {
+		return distance(FrameMatrix.of(xs), FrameMatrix.of(ys));
+	}
+
+	/** same, without copying the frames */
+	public double distance(FrameMatrix xs, FrameMatrix ys) {
+		if (xs.size() == 0 || ys.size() == 0)
+			return Double.MAX_VALUE;
+
+		final int n = xs.size(), m = ys.size();
+		final double inf = Double.POSITIVE_INFINITY;
+
+		if (!window(n, m))
+			return inf;
+		if (steps == Steps.SYMMETRIC)
+			return symmetric(xs, ys, inf, null);
+
+		double[] prev = this.prev, curr = this.curr, dcurr = this.dcurr, dnext = this.dnext;
+
+		// row 0: no cumulation (favors "top-left", cf. Erkenner)
+		local(xs, 0, ys, lo[0], span(0, m), dcurr);
+		for (int j = lo[0]; j <= hi[0]; j++)
+			prev[j] = dcurr[j];
+		if (n > 1)
+			local(xs, 1, ys, lo[0], span(1, m), dnext);
+
+		for (int i = 1; i < n; i++) {
+			final int l = lo[i], h = hi[i], pl = lo[i - 1], ph = hi[i - 1];
+
+			double[] tmp = dcurr;
+			dcurr = dnext;
+			dnext = tmp;
+
+			// successor row, for the vertical step (and its own, later)
+			if (i < n - 1)
+				local(xs, i + 1, ys, l, span(i + 1, m), dnext);
+
+			// first column: no cumulation either
+			int j0 = l;
+			if (l == 0) {
+				curr[0] = dcurr[0];
+				j0 = 1;
+			} else {
+				curr[l - 1] = inf;
+			}
+
+			for (int j = j0; j <= h; j++) {
+				double pd = (j - 1 >= pl && j - 1 <= ph ? prev[j - 1] : inf);
+				double pv = (j <= ph ? prev[j] : inf);
+
+				double cd = pd + dcurr[j];
+				double ch = pv + (j < m - 1 ? dcurr[j + 1] : 0);
+				double cv = curr[j - 1] + (i < n - 1 ? dnext[j] : 0);
+
+				double c = cd < ch ? cd : ch;
+				curr[j] = c < cv ? c : cv;
+			}
+
+			tmp = prev;
+			prev = curr;
+			curr = tmp;
+		}
+
+		return prev[m - 1];
+	}
+
+	/**
+	 * Early-abandoning distance (SYMMETRIC steps only): once every path costs at least bsf,
+	 * stop; +Infinity unless the distance is below bsf.  The ERKENNER steps start anywhere on
+	 * the first row or column and add nothing along the last, so no partial cost bounds the
+	 * result; they compute in full.
+	 *
+	 * @return the distance if below bsf, otherwise +Infinity (ERKENNER: the distance)
+	 */
+	public double distance(double[][] xs, double[][] ys, double bsf) {
+		return distance(FrameMatrix.of(xs), FrameMatrix.of(ys), bsf);
+	}
+
+	/** same, without copying the frames */
+	public double distance(FrameMatrix xs, FrameMatrix ys, double bsf) {
+		if (steps != Steps.SYMMETRIC)
+			return distance(xs, ys);
+		if (xs.size() == 0 || ys.size() == 0)
+			return bsf > Double.MAX_VALUE ? Double.MAX_VALUE : Double.POSITIVE_INFINITY;
+		if (!window(xs.size(), ys.size()))
+			return Double.POSITIVE_INFINITY;
+		return symmetric(xs, ys, bsf, null);
+	}
+
+	/**
+	 * Symmetric steps on the windows computed before; rest[i] (if not null) is a lower bound of
+	 * what the rows after i add to any path, so that the search abandons as soon as the best
+	 * cell of row i plus rest[i] reaches bsf.
+	 */
+	double symmetric(FrameMatrix xs, FrameMatrix ys, double bsf, double[] rest) {
+		final int n = xs.size(), m = ys.size();
+		final double inf = Double.POSITIVE_INFINITY;
+
+		double[] prev = this.prev, curr = this.curr;
+
+		// row 0 from (0, 0)
+		double best = inf;
+		for (int j = 0; j <= hi[0]; j++) {
+			prev[j] = (j > 0 ? prev[j - 1] : 0) + xs.euclidean(0, ys, j);
+			best = Math.min(best, prev[j]);
+		}
+		if (best + (rest != null ? rest[0] : 0) >= bsf)
+			return inf;
+
+		for (int i = 1; i < n; i++) {
+			final int l = lo[i], h = hi[i], pl = lo[i - 1], ph = hi[i - 1];
+
+			best = inf;
+			double left = inf;
+			for (int j = l; j <= h; j++) {
+				double pd = (j - 1 >= pl && j - 1 <= ph ? prev[j - 1] : inf);
+				double pv = (j <= ph ? prev[j] : inf);
+
+				double c = pd < pv ? pd : pv;
+				c = (c < left ? c : left) + xs.euclidean(i, ys, j);
+
+				curr[j] = left = c;
+				if (c < best)
+					best = c;
+			}
+
+			if (best + (rest != null ? rest[i] : 0) >= bsf)
+				return inf;
+
+			double[] tmp = prev;
+			prev = curr;
+			curr = tmp;
+		}
+
+		return prev[m - 1] < bsf ? prev[m - 1] : inf;
+	}
+}
@@ -1,91 +1,67 @@
 package com.github.sikoried.sl.dtw;
 
 import com.github.sikoried.jstk.io.FrameInputStream;
-import com.github.sikoried.jstk.util.Distances;
+import com.github.sikoried.sl.io.FrameMatrix;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Erkenner {
-	public static double distance(double[][] xs, double[][] ys) {
-		if (xs.length == 0)
-			return Double.MAX_VALUE;
-
-		if (ys.length == 0)
-			return Double.MAX_VALUE;
-
-		double[][] D = new double [xs.length][ys.length];
-
-		// init; make it favor "top-left"
-		D[0][0] = Distances.euclidean(xs[0], ys[0]);
-		for (int i = 1; i < D.length; i++) {
-			D[i][0] = Distances.euclidean(xs[i], ys[0]);
-		}
-		for (int i = 1; i < D[0].length; i++) {
-			D[0][i] = Distances.euclidean(xs[0], ys[i]);
-		}
+	/** Sakoe-Chiba band for the template search, in frames */
+	static final int BAND = 20;
 
+	/**
+	 * DTW distance of two frame sequences, unconstrained; see DtwEngine for the recursion (and
+	 * for repeated use, as this allocates new scratch rows per call).
+	 */
+	public static double distance(double[][] xs, double[][] ys) {
+		return new DtwEngine().distance(xs, ys);
+	}
 
-		// bottom-up
-		for (int i = 1; i < xs.length; i++) {
-			for (int j = 1; j < ys.length; j++) {
-
-				double cd = D[i-1][j-1] + Distances.euclidean(xs[i], ys[j]);
-				double ch = D[i-1][j] + (j < ys.length-1 ? Distances.euclidean(xs[i], ys[j+1]) : 0);
-				double cv = D[i][j-1] + (i < xs.length-1 ? Distances.euclidean(xs[i+1], ys[j]) : 0);
+	/**
+	 * DTW distance within a Sakoe-Chiba band of the given width around the diagonal
+	 */
+	public static double distance(double[][] xs, double[][] ys, int band) {
+		return DtwEngine.sakoeChiba(band).distance(xs, ys);
+	}
 
-				D[i][j] = min(cd, ch, cv);
-			}
-		}
+	public static double distance(FrameMatrix xs, FrameMatrix ys) {
+		return new DtwEngine().distance(xs, ys);
+	}
 
-		return D[xs.length-1][ys.length-1];
+	public static double distance(FrameMatrix xs, FrameMatrix ys, int band) {
+		return DtwEngine.sakoeChiba(band).distance(xs, ys);
 	}
 
-	private static double min(double... d) {
-		Arrays.sort(d);
-		return d[0];
+	/** read all frames of a feature file */
+	static FrameMatrix read(File file) throws IOException {
+		FrameInputStream fis = new FrameInputStream(file);
+		FrameMatrix merkmale = FrameMatrix.read(fis);
+		fis.close();
+
+		return merkmale;
 	}
 
 	public static void main(String[] args) throws IOException {
 
 		String[] samples = {"holzfaeller.ft", "hoschnitzel.ft"};
-		double[][][] protos = new double [samples.length][][];
+		Recognizer protos = new Recognizer(BAND);
 
 		// read prototype words
-		for (int i = 0; i < samples.length; i++) {
-			FrameInputStream fis = new FrameInputStream(new File(samples[i]));
-			List<double[]> merkmale = new LinkedList<>();
-			double[] buf = new double[fis.getFrameSize()];
-			while (fis.read(buf))
-				merkmale.add(buf.clone());
-
-			protos[i] = merkmale.toArray(new double[merkmale.size()][]);
-
-			fis.close();
-		}
-
-		for (int i = 0; i < args.length; i++) {
-			FrameInputStream fis = new FrameInputStream(new File(args[i]));
-			List<double[]> merkmale = new LinkedList<>();
-			double[] buf = new double[fis.getFrameSize()];
-			while (fis.read(buf))
-				merkmale.add(buf.clone());
+		for (String sample : samples)
+			protos.add(sample, read(new File(sample)));
 
-			double[][] hyp = merkmale.toArray(new double[merkmale.size()][]);
+		List<FrameMatrix> hyps = new ArrayList<>();
+		for (String arg : args)
+			hyps.add(read(new File(arg)));
 
-			// score against all words, sort ascending (it's a distance!)
-			List<Pair<String, Double>> scores = new LinkedList<>();
-			for (int j = 0; j < protos.length; j++)
-				scores.add(Pair.of(samples[j], distance(hyp, protos[j]) / Math.max(hyp.length, protos[j].length)));
-			scores.sort(Comparator.comparingDouble(Pair::getRight));
+		// nearest word (it's a distance!), all files at once; most templates never see a full DTW
+		List<Pair<String, Double>> best = protos.recognize(hyps);
 
-			System.out.println(args[i] + ": " + scores);
-			fis.close();
-		}
+		for (int i = 0; i < args.length; i++)
+			System.out.println(args[i] + ": " + best.get(i));
 	}
 }
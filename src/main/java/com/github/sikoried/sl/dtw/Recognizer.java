@@ -0,0 +1,214 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.sl.io.FrameMatrix;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Template library that recognizes queries concurrently: the (query, template) pairs of a batch
+ * are spread over a work-stealing pool in chunks of templates, and each query keeps one
+ * best-so-far that all its chunks prune against (see TemplateSearch for the cascade).  The
+ * results are those of a sequential search; equal distances go to the smaller template index.
+ *
+ * Add all templates first; then recognize from any number of threads.
+ */
+public class Recognizer {
+	/** templates per task */
+	public static final int CHUNK = 64;
+
+	private final TemplateSearch library;
+	private final TemplateSearch.Counters counters = new TemplateSearch.Counters();
+
+	/** one scorer (scratch rows) per worker thread */
+	private final ThreadLocal<TemplateSearch.Scorer> scorers;
+
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * @param band width of the Sakoe-Chiba band around the (length-normalized) diagonal
+	 */
+	public Recognizer(int band) {
+		this.library = new TemplateSearch(band);
+		this.scorers = ThreadLocal.withInitial(() -> new TemplateSearch.Scorer(band, counters));
+	}
+
+	/** add a template (of at least one frame); not while recognizing */
+	public void add(String label, double[][] frames) {
+		library.add(label, frames);
+	}
+
+	public void add(String label, FrameMatrix frames) {
+		library.add(label, frames);
+	}
+
+	public int size() {
+		return library.size();
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	/** best distance and template index so far; immutable, swapped atomically */
+	private static final class Best {
+		final double d;
+		final int id;
+
+		Best(double d, int id) {
+			this.d = d;
+			this.id = id;
+		}
+	}
+
+	/** one query: its LB_Kim order and shared best-so-far */
+	private final class Query extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final FrameMatrix xs;
+		final AtomicReference<Best> best = new AtomicReference<>(new Best(Double.POSITIVE_INFINITY, -1));
+		double[] kim;
+		Integer[] order;
+
+		Query(FrameMatrix xs) {
+			this.xs = xs;
+		}
+
+		void offer(double d, int id) {
+			while (true) {
+				Best b = best.get();
+				if (d > b.d || (d == b.d && id > b.id))
+					return;
+				if (best.compareAndSet(b, new Best(d, id)))
+					return;
+			}
+		}
+
+		/** score order[from..to) against the current best-so-far */
+		void scan(int from, int to) {
+			List<TemplateSearch.Template> templates = library.templates();
+			TemplateSearch.Scorer scorer = scorers.get();
+			for (int p = from; p < to; p++) {
+				final int k = order[p];
+				final double bsf = best.get().d;
+				if (kim[k] > bsf) {
+					counters.prunedKim.add(to - p);
+					return;
+				}
+
+				// the slack admits ties (and the rounding of the normalization)
+				double d = scorer.score(xs, templates.get(k), Math.nextUp(bsf) * (1 + 1e-12));
+				if (d < Double.POSITIVE_INFINITY)
+					offer(d, k);
+			}
+		}
+
+		void prepare() {
+			kim = new double [library.size()];
+			order = TemplateSearch.order(xs, library.templates(), kim);
+		}
+
+		@Override
+		protected void compute() {
+			final int T = library.size();
+			if (T == 0)
+				return;
+
+			prepare();
+
+			// the most promising template first, for a bound to start with
+			scan(0, 1);
+
+			List<RecursiveAction> chunks = new ArrayList<>();
+			for (int from = 1; from < T; from += CHUNK) {
+				final int f = from, t = Math.min(T, from + CHUNK);
+				chunks.add(new RecursiveAction() {
+					@Override
+					protected void compute() {
+						scan(f, t);
+					}
+				});
+			}
+			invokeAll(chunks);
+		}
+
+		Pair<String, Double> result() {
+			Best b = best.get();
+			return b.id < 0 ? null : Pair.of(library.templates().get(b.id).label, b.d);
+		}
+	}
+
+	/**
+	 * Nearest template of the query (of at least one frame).
+	 *
+	 * @return label and normalized distance; null if there are no templates
+	 */
+	public Pair<String, Double> recognize(double[][] xs) {
+		return recognize(FrameMatrix.of(xs));
+	}
+
+	public Pair<String, Double> recognize(FrameMatrix xs) {
+		return recognize(Collections.singletonList(xs)).get(0);
+	}
+
+	/**
+	 * Nearest templates of a batch of queries, in order; all (query, template) pairs share the
+	 * pool (or run on the calling thread if it is null).
+	 */
+	public List<Pair<String, Double>> recognize(List<FrameMatrix> batch) {
+		List<Query> queries = new ArrayList<>(batch.size());
+		for (FrameMatrix xs : batch)
+			queries.add(new Query(xs));
+
+		RecursiveAction all = new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(queries);
+			}
+		};
+
+		if (pool == null) {
+			// same tasks, but each one right away
+			for (Query q : queries) {
+				q.prepare();
+				q.scan(0, library.size());
+			}
+		} else {
+			pool.invoke(all);
+		}
+
+		List<Pair<String, Double>> results = new ArrayList<>(queries.size());
+		for (Query q : queries)
+			results.add(q.result());
+		return results;
+	}
+
+	/** templates pruned by LB_Kim so far */
+	public long getPrunedKim() {
+		return counters.prunedKim.sum();
+	}
+
+	/** templates pruned by LB_Keogh so far */
+	public long getPrunedKeogh() {
+		return counters.prunedKeogh.sum();
+	}
+
+	/** DTW computations abandoned early (or ending above the best-so-far) so far */
+	public long getAbandoned() {
+		return counters.abandoned.sum();
+	}
+
+	/** DTW computations that ran to the end so far */
+	public long getComputed() {
+		return counters.computed.sum();
+	}
+}
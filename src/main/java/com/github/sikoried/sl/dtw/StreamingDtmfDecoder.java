@@ -0,0 +1,242 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.jstk.util.Distances;
+
+import java.util.Arrays;
+
+/**
+ * Online version of DtmfDecoder.decode: frames go in one at a time, and labels come out as soon
+ * as all surviving paths agree on them (partial traceback to the convergence point).  The
+ * backpointers live in a fixed ring of frames, so memory is constant for any input length; if
+ * the paths have not converged when the ring is full, the oldest open frame is decided by the
+ * best path, and the paths that disagree are dropped.  That bounds the latency to the ring
+ * size; as long as it is not hit, the output is the same as DtmfDecoder.decode's.
+ *
+ * Not thread-safe; use one decoder per stream.
+ */
+public class StreamingDtmfDecoder {
+	/** default ring size, in frames (10 seconds at 10 ms) */
+	public static final int CAPACITY = 1000;
+
+	/** values per feature frame */
+	public static final int FRAME_SIZE = DtmfDecoder.states[0].length;
+
+	private static final char[] labels = DtmfDecoder.labels;
+	private static final double[][] states = DtmfDecoder.states;
+	private static final int S = states.length;
+
+	private final boolean fold;
+
+	/** backpointers of frame t at ring[t % capacity]: state at t -> state at t-1 */
+	private final int[][] ring;
+
+	private final double[] costs = new double [S];
+	private final double[] buf = new double [FRAME_SIZE];
+
+	/** frames seen, ie. positions 0..frames of the best path exist */
+	private int frames;
+
+	/** positions up to this one are emitted; backpointers of frames after emitted+1 are kept */
+	private int emitted = -1;
+
+	/** scratch for the traceback: state sets of the current and previous position */
+	private final boolean[] cur = new boolean [S], prev = new boolean [S];
+	private final int[] path;
+
+	/** folding: last label emitted */
+	private char last = 0;
+
+	/** start trace at silence (0), as decode */
+	private boolean started;
+
+	public StreamingDtmfDecoder(boolean fold) {
+		this(fold, CAPACITY);
+	}
+
+	/**
+	 * @param fold emit digits (as decode(fs, true)) instead of one label per frame
+	 * @param capacity ring size, ie. maximum latency in frames
+	 */
+	public StreamingDtmfDecoder(boolean fold, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+
+		this.fold = fold;
+		this.ring = new int [capacity][S];
+		this.path = new int [capacity + 1];
+	}
+
+	/**
+	 * Consume a DTMF feature frame (energy unnormalized, as from jstk's DTMF)
+	 *
+	 * @return the labels (or digits) decided by this frame, possibly empty
+	 */
+	public String accept(double[] frame) {
+		StringBuilder sb = new StringBuilder();
+
+		// ring full: decide the oldest open position by the best path
+		if (frames - emitted >= ring.length)
+			force(sb);
+
+		System.arraycopy(frame, 0, buf, 0, buf.length);
+		buf[0] = buf[0] / 4640.; // max energy for this synthesizer
+
+		int[] mins = ring[(frames + 1) % ring.length];
+
+		// same (in-place) update as decode
+		for (int i = 0; i < S; i++) {
+			double d = Distances.euclidean(buf, states[i]);
+
+			int p = 0;
+			double v = costs[0] + d;
+			for (int j = 1; j < S; ++j) {
+				if (costs[j] + d < v) {
+					p = j;
+					v = costs[j] + d;
+				}
+			}
+
+			mins[i] = p;
+			costs[i] = v;
+		}
+		frames++;
+
+		converge(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * End of stream: decide the rest by the best final state
+	 *
+	 * @return the remaining labels (or digits)
+	 */
+	public String finish() {
+		StringBuilder sb = new StringBuilder();
+		emit(best(), frames, sb);
+		return sb.toString();
+	}
+
+	/** start a new stream, keeping the ring and scratch arrays */
+	public void reset() {
+		Arrays.fill(costs, 0);
+		frames = 0;
+		emitted = -1;
+		last = 0;
+		started = false;
+	}
+
+	/** ring size, ie. maximum latency in frames */
+	public int getCapacity() {
+		return ring.length;
+	}
+
+	public boolean isFold() {
+		return fold;
+	}
+
+	/** number of frames seen */
+	public int getFrames() {
+		return frames;
+	}
+
+	/** frames whose labels are still open, ie. the current latency */
+	public int getPending() {
+		return frames - emitted;
+	}
+
+	private int best() {
+		int p = 0;
+		for (int i = 1; i < S; i++)
+			if (costs[i] < costs[p])
+				p = i;
+		return p;
+	}
+
+	/**
+	 * Trace the surviving states back until they meet; if they do, emit up to that position
+	 */
+	private void converge(StringBuilder sb) {
+		int n = 0;
+		for (int i = 0; i < S; i++) {
+			cur[i] = costs[i] < Double.POSITIVE_INFINITY;
+			if (cur[i])
+				n++;
+		}
+
+		for (int t = frames; t > emitted; t--) {
+			if (n == 1) {
+				for (int i = 0; i < S; i++) {
+					if (cur[i]) {
+						emit(i, t, sb);
+						return;
+					}
+				}
+			}
+
+			if (t == emitted + 1)
+				return;
+
+			// previous position: where the backpointers of the current set lead
+			int[] mins = ring[t % ring.length];
+			Arrays.fill(prev, false);
+			n = 0;
+			for (int i = 0; i < S; i++) {
+				if (cur[i] && !prev[mins[i]]) {
+					prev[mins[i]] = true;
+					n++;
+				}
+			}
+			System.arraycopy(prev, 0, cur, 0, S);
+		}
+	}
+
+	/**
+	 * Decide the oldest open position by the best path; drop the states whose paths go through
+	 * another one there.
+	 */
+	private void force(StringBuilder sb) {
+		final int t0 = emitted + 1;
+		final int s = ancestor(best(), t0);
+
+		for (int i = 0; i < S; i++)
+			if (costs[i] < Double.POSITIVE_INFINITY && ancestor(i, t0) != s)
+				costs[i] = Double.POSITIVE_INFINITY;
+
+		emit(s, t0, sb);
+	}
+
+	/** state at position t of the path ending in state i now */
+	private int ancestor(int i, int t) {
+		for (int u = frames; u > t; u--)
+			i = ring[u % ring.length][i];
+		return i;
+	}
+
+	/** emit the path ending in state i at position t, from the first open position */
+	private void emit(int i, int t, StringBuilder sb) {
+		if (!started) {
+			append(labels[0], sb);
+			started = true;
+		}
+
+		int k = 0;
+		for (int u = t; u > emitted; u--) {
+			path[k++] = i;
+			if (u > emitted + 1)
+				i = ring[u % ring.length][i];
+		}
+
+		while (k > 0)
+			append(labels[path[--k]], sb);
+
+		emitted = t;
+	}
+
+	private void append(char z, StringBuilder sb) {
+		if (!fold)
+			sb.append(z);
+		else if (z != last && z != labels[0])
+			sb.append(z);
+		last = z;
+	}
+}
@@ -0,0 +1,273 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.sl.io.FrameMatrix;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nearest template by (banded, symmetric) DTW, normalized by the longer of the two lengths as in
+ * Erkenner.main.  As in the UCR suite, the templates run through a cascade of lower bounds
+ * before any DP: LB_Kim (first and last frame, which every path visits), then LB_Keogh (each
+ * query frame against the bounding box of the template frames its window may align to, from
+ * envelopes precomputed per template), and finally a DTW that abandons as soon as the current
+ * row plus the LB_Keogh of the remaining rows exceeds the best-so-far.  The templates are
+ * visited by increasing LB_Kim, so that a good best-so-far is found early.
+ *
+ * The search keeps scratch rows, so it is not thread-safe; see Recognizer for concurrent
+ * queries.
+ */
+public class TemplateSearch {
+	/** a template with its LB_Keogh envelope: the min/max of frames [j-r, j+r] per dimension */
+	static final class Template {
+		final String label;
+		final FrameMatrix frames;
+		final FrameMatrix upper, lower;
+
+		Template(String label, FrameMatrix frames, int r) {
+			this.label = label;
+			this.frames = frames;
+
+			final int m = frames.size(), dim = frames.getDim();
+			double[] u = new double [m * dim], l = new double [m * dim];
+			Arrays.fill(u, Double.NEGATIVE_INFINITY);
+			Arrays.fill(l, Double.POSITIVE_INFINITY);
+			for (int j = 0; j < m; j++) {
+				for (int k = Math.max(0, j - r); k <= Math.min(m - 1, j + r); k++) {
+					for (int d = 0; d < dim; d++) {
+						u[j * dim + d] = Math.max(u[j * dim + d], frames.get(k, d));
+						l[j * dim + d] = Math.min(l[j * dim + d], frames.get(k, d));
+					}
+				}
+			}
+			upper = new FrameMatrix(u, m, dim, dim);
+			lower = new FrameMatrix(l, m, dim, dim);
+		}
+	}
+
+	/** how far the templates got in the cascade; shared by the scorers of a search */
+	static final class Counters {
+		final LongAdder prunedKim = new LongAdder();
+		final LongAdder prunedKeogh = new LongAdder();
+		final LongAdder abandoned = new LongAdder();
+		final LongAdder computed = new LongAdder();
+	}
+
+	/**
+	 * LB_Keogh and the early-abandoning DTW of a query against one template at a time; keeps
+	 * scratch rows, so use one per thread.
+	 */
+	static final class Scorer {
+		private final DtwEngine dtw;
+		private final int radius;
+		private final Counters counters;
+
+		/** scratch: LB_Keogh per query row, then the bound of the rows after */
+		private double[] rest = new double [32];
+
+		Scorer(int band, Counters counters) {
+			this.dtw = new DtwEngine(DtwEngine.Constraint.SAKOE_CHIBA, band, DtwEngine.Steps.SYMMETRIC);
+			this.radius = band + 1;
+			this.counters = counters;
+		}
+
+		/** the (normalized) distance, without any pruning */
+		double distance(FrameMatrix xs, FrameMatrix ys) {
+			return dtw.distance(xs, ys) / Math.max(xs.size(), ys.size());
+		}
+
+		/**
+		 * LB_Keogh of the query against template t, on the windows of the engine; each row's
+		 * bound goes to rest[i].  Stops as soon as the sum reaches bsf.
+		 *
+		 * @return the bound (or a partial sum >= bsf)
+		 */
+		private double lbKeogh(FrameMatrix xs, Template t, double bsf) {
+			final int m = t.frames.size();
+			final int span = 2 * radius + 1;
+
+			double lb = 0;
+			for (int i = 0; i < xs.size(); i++) {
+				// cover the window with envelopes (usually one)
+				double b = Double.POSITIVE_INFINITY;
+				for (int c = dtw.lo[i] + radius; c - radius <= dtw.hi[i]; c += span) {
+					int cc = Math.min(c, m - 1);
+					b = Math.min(b, xs.euclidean(i, t.lower, t.upper, cc));
+				}
+
+				rest[i] = b;
+				lb += b;
+				if (lb >= bsf)
+					return lb;
+			}
+			return lb;
+		}
+
+		/**
+		 * Normalized distance of the query to template t if below bsf (also normalized),
+		 * otherwise +Infinity; LB_Kim is up to the caller.
+		 */
+		double score(FrameMatrix xs, Template t, double bsf) {
+			final int n = xs.size();
+			if (rest.length < n)
+				rest = new double [Math.max(n, 2 * rest.length)];
+
+			if (!dtw.window(n, t.frames.size()))
+				return Double.POSITIVE_INFINITY;
+
+			// bsf in unnormalized terms of this template
+			final double norm = Math.max(n, t.frames.size());
+			final double limit = bsf * norm;
+			if (lbKeogh(xs, t, limit) >= limit) {
+				counters.prunedKeogh.increment();
+				return Double.POSITIVE_INFINITY;
+			}
+
+			// rest[i]: bound of the rows after i
+			double acc = 0;
+			for (int i = n - 1; i >= 0; i--) {
+				double b = rest[i];
+				rest[i] = acc;
+				acc += b;
+			}
+
+			double d = dtw.symmetric(xs, t.frames, limit, rest);
+			if (d == Double.POSITIVE_INFINITY) {
+				counters.abandoned.increment();
+				return d;
+			}
+
+			counters.computed.increment();
+			return d / norm;
+		}
+	}
+
+	private final List<Template> templates = new ArrayList<>();
+	private final int band;
+
+	/** envelope radius: a Sakoe-Chiba window spans up to 2*width+2 frames, ie. one envelope */
+	private final int radius;
+
+	private final Counters counters = new Counters();
+	private final Scorer scorer;
+
+	/**
+	 * @param band width of the Sakoe-Chiba band around the (length-normalized) diagonal
+	 */
+	public TemplateSearch(int band) {
+		this.band = band;
+		this.radius = band + 1;
+		this.scorer = new Scorer(band, counters);
+	}
+
+	/** add a template (of at least one frame) */
+	public void add(String label, double[][] frames) {
+		add(label, FrameMatrix.of(frames));
+	}
+
+	public void add(String label, FrameMatrix frames) {
+		if (frames.size() == 0)
+			throw new IllegalArgumentException("empty template " + label);
+		templates.add(new Template(label, frames, radius));
+	}
+
+	public int size() {
+		return templates.size();
+	}
+
+	public int getBand() {
+		return band;
+	}
+
+	List<Template> templates() {
+		return templates;
+	}
+
+	/** the (normalized) distance as the search computes it, without any pruning */
+	public double distance(double[][] xs, double[][] ys) {
+		return scorer.distance(FrameMatrix.of(xs), FrameMatrix.of(ys));
+	}
+
+	public double distance(FrameMatrix xs, FrameMatrix ys) {
+		return scorer.distance(xs, ys);
+	}
+
+	/** LB_Kim (first/last): every path starts at (0, 0) and ends at (n-1, m-1) */
+	static double lbKim(FrameMatrix xs, FrameMatrix ys) {
+		final int n = xs.size(), m = ys.size();
+		double lb = xs.euclidean(0, ys, 0);
+		if (n > 1 || m > 1)
+			lb += xs.euclidean(n - 1, ys, m - 1);
+		return lb;
+	}
+
+	/** template IDs by increasing (normalized) LB_Kim, which goes to kim */
+	static Integer[] order(FrameMatrix xs, List<Template> templates, double[] kim) {
+		Integer[] order = new Integer [templates.size()];
+		for (int k = 0; k < order.length; k++) {
+			FrameMatrix ys = templates.get(k).frames;
+			kim[k] = lbKim(xs, ys) / Math.max(xs.size(), ys.size());
+			order[k] = k;
+		}
+		Arrays.sort(order, Comparator.comparingDouble(k -> kim[k]));
+		return order;
+	}
+
+	/**
+	 * Nearest template of the query (of at least one frame).
+	 *
+	 * @return label and normalized distance; null if there are no templates (or no path)
+	 */
+	public Pair<String, Double> nearest(double[][] xs) {
+		return nearest(FrameMatrix.of(xs));
+	}
+
+	public Pair<String, Double> nearest(FrameMatrix xs) {
+		final int T = templates.size();
+		final double[] kim = new double [T];
+		final Integer[] order = order(xs, templates, kim);
+
+		Template best = null;
+		double bsf = Double.POSITIVE_INFINITY;
+		for (int p = 0; p < T; p++) {
+			final int k = order[p];
+			if (kim[k] >= bsf) {
+				// sorted: all others are pruned as well
+				counters.prunedKim.add(T - p);
+				break;
+			}
+
+			double d = scorer.score(xs, templates.get(k), bsf);
+			if (d < bsf) {
+				bsf = d;
+				best = templates.get(k);
+			}
+		}
+
+		return best == null ? null : Pair.of(best.label, bsf);
+	}
+
+	/** templates pruned by LB_Kim so far */
+	public long getPrunedKim() {
+		return counters.prunedKim.sum();
+	}
+
+	/** templates pruned by LB_Keogh so far */
+	public long getPrunedKeogh() {
+		return counters.prunedKeogh.sum();
+	}
+
+	/** DTW computations abandoned early (or ending above the best-so-far) so far */
+	public long getAbandoned() {
+		return counters.abandoned.sum();
+	}
+
+	/** DTW computations that ran to the end so far */
+	public long getComputed() {
+		return counters.computed.sum();
+	}
+}
@@ -0,0 +1,127 @@
+package com.github.sikoried.sl.io;
+
+import com.github.sikoried.jstk.io.FrameSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Feature frames in one contiguous array: frame i is data[i*stride .. i*stride+dim).  Reading a
+ * FrameSource into it needs no object per frame, and the distance loops run over adjacent
+ * memory instead of one array per frame.
+ */
+public final class FrameMatrix {
+	/** initial capacity of the reader, in frames */
+	private static final int INITIAL_FRAMES = 256;
+
+	private final double[] data;
+	private final int rows, dim, stride;
+
+	public FrameMatrix(double[] data, int rows, int dim, int stride) {
+		if (stride < dim || (rows > 0 && data.length < (rows - 1) * stride + dim))
+			throw new IllegalArgumentException("data too short for " + rows + " frames of " + dim + " (stride " + stride + ")");
+
+		this.data = data;
+		this.rows = rows;
+		this.dim = dim;
+		this.stride = stride;
+	}
+
+	/** copy the frames (all of the same size) */
+	public static FrameMatrix of(double[][] frames) {
+		final int dim = (frames.length > 0 ? frames[0].length : 0);
+		double[] data = new double [frames.length * dim];
+		for (int i = 0; i < frames.length; i++) {
+			if (frames[i].length != dim)
+				throw new IllegalArgumentException("frame " + i + " has " + frames[i].length + " values instead of " + dim);
+			System.arraycopy(frames[i], 0, data, i * dim, dim);
+		}
+		return new FrameMatrix(data, frames.length, dim, dim);
+	}
+
+	/** read all frames; the buffer grows geometrically and is trimmed once at the end */
+	public static FrameMatrix read(FrameSource fs) throws IOException {
+		final int dim = fs.getFrameSize();
+		double[] buf = new double [dim];
+		double[] data = new double [INITIAL_FRAMES * dim];
+
+		int n = 0;
+		while (fs.read(buf)) {
+			if ((n + 1) * dim > data.length)
+				data = Arrays.copyOf(data, 2 * data.length);
+			System.arraycopy(buf, 0, data, n * dim, dim);
+			n++;
+		}
+
+		return new FrameMatrix(n * dim < data.length ? Arrays.copyOf(data, n * dim) : data, n, dim, dim);
+	}
+
+	/** number of frames */
+	public int size() {
+		return rows;
+	}
+
+	public int getDim() {
+		return dim;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public double get(int i, int d) {
+		return data[i * stride + d];
+	}
+
+	/** copy of frame i */
+	public double[] frame(int i) {
+		return Arrays.copyOfRange(data, i * stride, i * stride + dim);
+	}
+
+	/** copy frame i into buf */
+	public void frame(int i, double[] buf) {
+		System.arraycopy(data, i * stride, buf, 0, dim);
+	}
+
+	/** copy of all frames, one array each */
+	public double[][] toArrays() {
+		double[][] frames = new double [rows][];
+		for (int i = 0; i < rows; i++)
+			frames[i] = frame(i);
+		return frames;
+	}
+
+	/** copy of all frames, for APIs that take lists (eg. jstk's Alignment) */
+	public List<double[]> toList() {
+		return new ArrayList<>(Arrays.asList(toArrays()));
+	}
+
+	/** euclidean distance of frame i to frame j of b */
+	public double euclidean(int i, FrameMatrix b, int j) {
+		final double[] x = data, y = b.data;
+		final int xo = i * stride, yo = j * b.stride;
+
+		double s = 0;
+		for (int d = 0; d < dim; d++) {
+			double e = x[xo + d] - y[yo + d];
+			s += e * e;
+		}
+		return Math.sqrt(s);
+	}
+
+	/** euclidean distance of frame i to the box [lower, upper] (frame j of each) */
+	public double euclidean(int i, FrameMatrix lower, FrameMatrix upper, int j) {
+		final double[] x = data, l = lower.data, u = upper.data;
+		final int xo = i * stride, lo = j * lower.stride, uo = j * upper.stride;
+
+		double s = 0;
+		for (int d = 0; d < dim; d++) {
+			double v = x[xo + d];
+			double e = v > u[uo + d] ? v - u[uo + d] : (v < l[lo + d] ? l[lo + d] - v : 0);
+			s += e * e;
+		}
+		return Math.sqrt(s);
+	}
+}
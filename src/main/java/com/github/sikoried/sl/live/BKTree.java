@@ -0,0 +1,232 @@
+package com.github.sikoried.sl.live;
+
+import com.github.sikoried.sl.autocorrect.CharArena;
+import com.github.sikoried.sl.autocorrect.DistanceEngine;
+import com.github.sikoried.sl.autocorrect.Lexicon;
+import com.github.sikoried.sl.autocorrect.SuggestionCache;
+import com.github.sikoried.sl.autocorrect.TopK;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * BK-tree over the vocabulary, using the unit-cost edit distance as metric.  Each node is a
+ * word, its children hang off edges labeled with their distance to it, so a subtree behind an
+ * edge e can only hold words within |d(q, node) - e| of the query (triangle inequality).
+ *
+ * Word IDs are the positions in the vocabulary list.  The words are inserted by descending count,
+ * so frequent words end up near the root and no word is more frequent than its ancestors.  A word
+ * that occurs more than once is kept under its first ID, with the sum of the counts.
+ */
+public class BKTree {
+    /** scoring for nearest(); score must not increase with the distance */
+    public interface Scorer {
+        /** score of word id at (unit-cost) distance d */
+        double score(int id, int d);
+
+        /**
+         * upper bound for the score of any word at distance d or more in the subtree of id;
+         * words in a subtree are never more frequent than its root
+         */
+        double bound(int id, int d);
+    }
+
+    final String[] words;
+    final long[] counts;
+
+    /** the words again, packed for the distance engine */
+    private final CharArena arena;
+
+    /** log of the total count */
+    final double logTotal;
+
+    /** children of node i: c = first[i], next[c], ...; edge[c] is the distance of c to i */
+    private final int[] first, next, edge;
+    private final int root;
+    private final int maxLength;
+
+    /** suggestions over this index (see ED.suggest3) by query and n; goes away with the index */
+    private volatile SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache =
+            new SuggestionCache<>(4096);
+
+    public BKTree(List<Pair<String, Long>> vocab) {
+        this(Lexicon.fromCounts(vocab));
+    }
+
+    /** index over a lexicon with counts; shares its packed words */
+    public BKTree(Lexicon lexicon) {
+        final int n = lexicon.size();
+        words = new String [n];
+        counts = new long [n];
+        for (int i = 0; i < n; i++) {
+            words[i] = lexicon.word(i);
+            counts[i] = lexicon.count(i);
+        }
+
+        arena = lexicon.getWords();
+        logTotal = Math.log(lexicon.getTotal());
+        maxLength = Arrays.stream(words).mapToInt(String::length).max().orElse(0);
+
+        first = new int [n];
+        next = new int [n];
+        edge = new int [n];
+        Arrays.fill(first, -1);
+        Arrays.fill(next, -1);
+
+        // merge duplicates before ordering, so that the counts still decrease towards the leaves
+        boolean[] duplicate = new boolean [n];
+        HashMap<String, Integer> seen = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            Integer j = seen.putIfAbsent(words[i], i);
+            if (j != null) {
+                counts[j] += counts[i];
+                duplicate[i] = true;
+            }
+        }
+
+        int[] order = IntStream.range(0, n).filter(i -> !duplicate[i]).boxed()
+                .sorted(Comparator.comparingLong((Integer i) -> counts[i]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        root = (order.length > 0 ? order[0] : -1);
+
+        DistanceEngine engine = new DistanceEngine("");
+        for (int k = 1; k < order.length; k++)
+            insert(order[k], engine);
+    }
+
+    public int size() {
+        return words.length;
+    }
+
+    public String word(int id) {
+        return words[id];
+    }
+
+    public long count(int id) {
+        return counts[id];
+    }
+
+    /** cache for ED.suggest3 on this index; null to disable.  The cached lists are unmodifiable. */
+    public void setCache(SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache) {
+        this.cache = cache;
+    }
+
+    public SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> getCache() {
+        return cache;
+    }
+
+    private void insert(int id, DistanceEngine engine) {
+        engine.reset(words[id]);
+        int node = root;
+        while (true) {
+            int d = engine.edit(arena, node);
+
+            int c = first[node];
+            while (c >= 0 && edge[c] != d)
+                c = next[c];
+
+            if (c < 0) {
+                edge[id] = d;
+                next[id] = first[node];
+                first[node] = id;
+                return;
+            }
+
+            node = c;
+        }
+    }
+
+    /**
+     * All words within radius r of the query
+     * @return word IDs, in no particular order
+     */
+    public int[] radius(String q, int r) {
+        int[] stack = new int [64], found = new int [16];
+        int sp = 0, nf = 0;
+        DistanceEngine engine = new DistanceEngine(q);
+
+        if (root >= 0)
+            stack[sp++] = root;
+
+        while (sp > 0) {
+            int node = stack[--sp];
+            int d = engine.edit(arena, node);
+            if (d <= r) {
+                if (nf == found.length)
+                    found = Arrays.copyOf(found, 2 * nf);
+                found[nf++] = node;
+            }
+
+            for (int c = first[node]; c >= 0; c = next[c]) {
+                if (Math.abs(d - edge[c]) <= r) {
+                    if (sp == stack.length)
+                        stack = Arrays.copyOf(stack, 2 * sp);
+                    stack[sp++] = c;
+                }
+            }
+        }
+
+        return Arrays.copyOf(found, nf);
+    }
+
+    /**
+     * The n best words by the given scorer.  Nodes are visited best-first by the lower bound of
+     * their distance (bucketed, since distances are small ints), and subtrees are skipped once
+     * none of their words can beat the n-th best.  Ties are broken by word ID.
+     * @return heap with the n best, sorted best first
+     */
+    public TopK nearest(String q, int n, Scorer scorer) {
+        TopK top = new TopK(n);
+        if (root < 0 || n == 0)
+            return top;
+
+        DistanceEngine engine = new DistanceEngine(q);
+
+        // buckets[lb]: nodes whose words are at least lb away from q
+        final int nb = Math.max(q.length(), maxLength) + 1;
+        int[][] buckets = new int [nb][];
+        int[] sizes = new int [nb];
+
+        buckets[0] = push(buckets[0], sizes[0]++, root);
+
+        for (int lb = 0; lb < nb; lb++) {
+            while (sizes[lb] > 0) {
+                int node = buckets[lb][--sizes[lb]];
+
+                // ties may still win by a smaller ID, so skip only if strictly worse
+                if (top.isFull() && scorer.bound(node, lb) < top.threshold())
+                    continue;
+
+                int d = engine.edit(arena, node);
+
+                // lower-bound filter: only score (which may be costly) if it can make it
+                if (!top.isFull() || scorer.bound(node, d) >= top.threshold())
+                    top.offer(node, scorer.score(node, d));
+
+                for (int c = first[node]; c >= 0; c = next[c]) {
+                    int clb = Math.max(lb, Math.abs(d - edge[c]));
+                    if (!top.isFull() || scorer.bound(c, clb) >= top.threshold())
+                        buckets[clb] = push(buckets[clb], sizes[clb]++, c);
+                }
+            }
+        }
+
+        top.sort();
+        return top;
+    }
+
+    private static int[] push(int[] stack, int size, int v) {
+        if (stack == null)
+            stack = new int [16];
+        else if (size == stack.length)
+            stack = Arrays.copyOf(stack, 2 * size);
+        stack[size] = v;
+        return stack;
+    }
+}
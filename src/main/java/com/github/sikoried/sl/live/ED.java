@@ -1,19 +1,24 @@
 package com.github.sikoried.sl.live;
 
+import com.github.sikoried.sl.autocorrect.DistanceEngine;
+import com.github.sikoried.sl.autocorrect.Distances;
+import com.github.sikoried.sl.autocorrect.Keyboard;
+import com.github.sikoried.sl.autocorrect.Lexicon;
+import com.github.sikoried.sl.autocorrect.SuggestionCache;
+import com.github.sikoried.sl.autocorrect.TopK;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Scanner;
 import java.util.stream.Collectors;
-import java.util.zip.ZipFile;
 
 public class ED {
     static double min(double d1, double... ds) {
@@ -23,39 +28,13 @@ public class ED {
         return m;
     }
 
-    static String[] keymap = {
-            "1234567890-=",
-            "qwertyuiop[]\\",
-            "asdfghjkl;'",
-            "zxcvbnm,./",
-            " "
-    };
-
-    static Pair<Integer, Integer> locate(char c) {
-        for (int i = 0; i < keymap.length; i++) {
-            if (keymap[i].contains("" + c)) {
-                int p = keymap[i].indexOf(c);
-                if (p >= 0)
-                    return Pair.of(i, p);
-            }
-        }
+    static final Keyboard keyboard = Keyboard.QWERTY;
 
-        // default?
-        return Pair.of(-1, -1);
-    }
+    /** weight of a substitution by key distance d: 1 + (1 - 1/d), precomputed for all key pairs */
+    private static final double[] weights = keyboard.matrix(d -> 1. + (1. - 1. / d));
 
     public static double weight(char a, char b) {
-        Pair<Integer, Integer> pa, pb;
-        pa = locate(a);
-        pb = locate(b);
-
-        // Euclidean
-        double dist = Math.sqrt(
-                Math.pow(pa.getLeft() - pb.getLeft(), 2) +
-                        Math.pow(pa.getRight() - pb.getRight(), 2));
-
-        // scale?
-        return 1. + (1. - 1. / dist);
+        return weights[keyboard.index(a) * keyboard.size() + keyboard.index(b)];
     }
 
     public static double edit2(String a, String b,
@@ -64,6 +43,12 @@ public class ED {
         int lb = b.length();
         double D[][] = new double [la+1][lb+1];
 
+        // key indices once per char, so the weight is a single lookup per cell
+        final int k = keyboard.size();
+        int[] ka = new int [la], kb = new int [lb];
+        for (int i = 0; i < la; i++) ka[i] = keyboard.index(a.charAt(i)) * k;
+        for (int j = 0; j < lb; j++) kb[j] = keyboard.index(b.charAt(j));
+
         for (int i = 1; i <= la; i++) D[i][0] = i*ci;
         for (int j = 1; j <= lb; j++) D[0][j] = j*cd;
 
@@ -71,7 +56,7 @@ public class ED {
             for (int j = 1; j <= lb; j++) {
                 double d = (a.charAt(i-1) == b.charAt(j-1)
                         ? 0
-                        : cr * weight(a.charAt(i-1), b.charAt(j-1)));
+                        : cr * weights[ka[i-1] + kb[j-1]]);
 
                 D[i][j] = min(D[i-1][j-1]+d,
                         D[i-1][j]+cd,
@@ -84,6 +69,10 @@ public class ED {
 
     public static double edit(String a, String b,
                               double cr, double ci, double cd) {
+        // unit costs: bit-parallel
+        if (cr == 1 && ci == 1 && cd == 1)
+            return Distances.edit(a, b);
+
         int la = a.length();
         int lb = b.length();
         double D[][] = new double [la+1][lb+1];
@@ -106,26 +95,31 @@ public class ED {
         return D[la][lb];
     }
 
-    public static List<Pair<String, Long>> loadVocab() throws IOException, URISyntaxException {
+    /** the count_1w lexicon; parsed once, then loaded from its binary cache */
+    public static Lexicon loadLexicon() throws IOException, URISyntaxException {
         URL zipUrl = ED.class.getResource("/count_1w.txt.zip");
-        File zipFile = new File(zipUrl.toURI());
-        ZipFile zip = new ZipFile(zipFile);
-        BufferedReader br = new BufferedReader(new InputStreamReader(
-                zip.getInputStream(zip.getEntry("count_1w.txt"))));
-
-        return br.lines().map(l -> l.split("\\s+"))
-                .map(a -> Pair.of(a[0], Long.parseLong(a[1])))
-                .sorted(Comparator.comparing(Pair::getLeft))
-                .collect(Collectors.toList());
+        return Lexicon.load(new File(zipUrl.toURI()), "count_1w.txt");
+    }
+
+    public static List<Pair<String, Long>> loadVocab() throws IOException, URISyntaxException {
+        Lexicon lex = loadLexicon();
+
+        // sorted by word
+        List<Pair<String, Long>> vocab = new ArrayList<>(lex.size());
+        for (int i = 0; i < lex.size(); i++)
+            vocab.add(Pair.of(lex.word(i), lex.count(i)));
+        return vocab;
     }
 
     public static List<Triple<String, Double, Long>> suggest(
             List<Pair<String, Long>> vocab,
             String cand,
             int n) {
+        // unit costs: preprocess the query once for all words
+        DistanceEngine engine = new DistanceEngine(cand);
         return vocab.stream()
                 .map(p -> Triple.of(p.getLeft(),
-                    edit(cand, p.getLeft(), 1, 1, 1),
+                    (double) engine.edit(p.getLeft()),
                     p.getRight()))
                 .sorted(Comparator.comparing(Triple<String, Double, Long>::getMiddle)
                     .thenComparing(Comparator.comparing(Triple<String, Double, Long>::getRight).reversed()))
@@ -138,9 +132,10 @@ public class ED {
             String cand,
             int n) {
         double offs = Math.log(vocab.stream().mapToLong(Pair::getRight).sum());
+        DistanceEngine engine = new DistanceEngine(cand);
         return vocab.stream()
                 .map(p -> Pair.of(p.getLeft(),
-                        -Math.log(1. + Math.min(6.0, edit(cand, p.getLeft(), 1, 1, 1)))
+                        -Math.log(1. + Math.min(6.0, engine.edit(p.getLeft())))
                                 + (Math.log(p.getRight()) - offs) * 0.05))
                 .sorted(Comparator.comparing(Pair<String, Double>::getRight).reversed())
                 .limit(n)
@@ -161,18 +156,112 @@ public class ED {
                 .collect(Collectors.toList());
     }
 
+    /** build the index once, eg. from loadVocab() */
+    public static BKTree index(List<Pair<String, Long>> vocab) {
+        return new BKTree(vocab);
+    }
+
+    /** build the index once, eg. from loadLexicon(); same word IDs as the lexicon */
+    public static BKTree index(Lexicon lexicon) {
+        return new BKTree(lexicon);
+    }
+
+    /** same as suggest(vocab, cand, n), using the index */
+    public static List<Triple<String, Double, Long>> suggest(BKTree index, String cand, int n) {
+        // distance first, then count: counts scaled to [0, 1) break the ties between distances
+        final double scale = 1. / (1. + Math.exp(index.logTotal));
+        TopK top = index.nearest(cand, n, new BKTree.Scorer() {
+            public double score(int id, int d) { return -d + index.count(id) * scale; }
+            public double bound(int id, int d) { return -d + index.count(id) * scale; }
+        });
+
+        List<Triple<String, Double, Long>> li = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            int id = top.id(i);
+            li.add(Triple.of(index.word(id), edit(cand, index.word(id), 1, 1, 1), index.count(id)));
+        }
+        return li;
+    }
+
+    /** same as suggest2(vocab, cand, n), using the index */
+    public static List<Pair<String, Double>> suggest2(BKTree index, String cand, int n) {
+        final double offs = index.logTotal;
+        return pairs(index, index.nearest(cand, n, new BKTree.Scorer() {
+            public double score(int id, int d) {
+                return -Math.log(1. + Math.min(6.0, d)) + (Math.log(index.count(id)) - offs) * 0.05;
+            }
+            public double bound(int id, int d) {
+                return score(id, d);
+            }
+        }));
+    }
+
+    /**
+     * Same as suggest3(vocab, cand, n), using the index.  edit2 is never below the unit-cost edit
+     * distance as long as no two off-keymap chars are substituted (their weight is not >= 1), so
+     * the unit-cost distance bounds the score, and edit2 is only computed if the bound makes it.
+     * The results are cached (as unmodifiable lists) in the index, see BKTree.getCache().
+     */
+    public static List<Pair<String, Double>> suggest3(BKTree index, String cand, int n) {
+        SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache = index.getCache();
+        if (cache == null)
+            return rank3(index, cand, n);
+        return cache.get(new SuggestionCache.Key("suggest3", cand, 0, n, 0, 0),
+                k -> Collections.unmodifiableList(rank3(index, cand, n)));
+    }
+
+    private static List<Pair<String, Double>> rank3(BKTree index, String cand, int n) {
+        final double offs = index.logTotal;
+
+        TopK top;
+        if (onKeymap(cand)) {
+            top = index.nearest(cand, n, new BKTree.Scorer() {
+                public double score(int id, int d) {
+                    return -Math.log(1. + Math.min(6.0, edit2(cand, index.word(id), 1, 1, 1)))
+                            + (Math.log(index.count(id)) - offs) * 0.05;
+                }
+                public double bound(int id, int d) {
+                    return -Math.log(1. + Math.min(6.0, d)) + (Math.log(index.count(id)) - offs) * 0.05;
+                }
+            });
+        } else {
+            // no bound: score them all
+            top = new TopK(n);
+            for (int id = 0; id < index.size(); id++)
+                top.offer(id, -Math.log(1. + Math.min(6.0, edit2(cand, index.word(id), 1, 1, 1)))
+                        + (Math.log(index.count(id)) - offs) * 0.05);
+            top.sort();
+        }
+
+        return pairs(index, top);
+    }
+
+    private static List<Pair<String, Double>> pairs(BKTree index, TopK top) {
+        List<Pair<String, Double>> li = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++)
+            li.add(Pair.of(index.word(top.id(i)), top.score(i)));
+        return li;
+    }
+
+    static boolean onKeymap(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (keyboard.index(s.charAt(i)) == 0)
+                return false;
+        return true;
+    }
+
     public static void main(String[] args) throws IOException, URISyntaxException {
         Scanner in = new Scanner(System.in);
 
-        List<Pair<String, Long>> vocab = ED.loadVocab();
+        BKTree index = ED.index(ED.loadLexicon());
 
         String s;
         while ((s = in.nextLine()) != null) {
-//            ED.suggest(vocab, s, 5)
+//            ED.suggest(index, s, 5)
 //                    .forEach(System.out::println);
-//            ED.suggest2(vocab, s, 5)
+//            ED.suggest2(index, s, 5)
 //                    .forEach(System.out::println);
-            ED.suggest3(vocab, s, 5)
+            ED.suggest3(index, s, 5)
                     .forEach(System.out::println);
         }
     }
@@ -0,0 +1,47 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArpaReaderTest {
+	@Test
+	void testParse() {
+		NGramModel.NGram ng = NGramModel.NGram.parse("-0.1\ta b c\t-0.5");
+		assertArrayEquals(new String [] {"a", "b", "c"}, ng.w);
+		assertEquals(-0.1, ng.logp);
+		assertEquals(-0.5, ng.getBackoff(), 0.0);
+
+		ng = NGramModel.NGram.parse("-99\t<s>");
+		assertArrayEquals(new String [] {"<s>"}, ng.w);
+		assertFalse(ng.hasBackoff());
+	}
+
+	@Test
+	void testChunked() throws IOException {
+		ClassLoader classLoader = ArpaReaderTest.class.getClassLoader();
+		File file = new File(classLoader.getResource("ngram-models/faust.4g.gz").getFile());
+
+		List<NGramModel.NGram> expected = NGramModel.fromArpa(file).getNgrams();
+
+		// tiny chunks on a small pool must yield the same n-grams, in the same order
+		ForkJoinPool pool = new ForkJoinPool(3);
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+			List<NGramModel.NGram> actual = new ArpaReader(pool, 7).read(br);
+
+			assertEquals(30373, actual.size());
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++)
+				assertEquals(expected.get(i).toString(), actual.get(i).toString());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -4,12 +4,16 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.zip.GZIPInputStream;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 class AutoCompleteTest {
 	@Test
 	void testAutoCompleteWerther() throws IOException {
@@ -50,6 +54,47 @@ class AutoCompleteTest {
 			System.out.println(s);
 	}
 
+	@Test
+	void testSuccessorIndex() throws IOException {
+		ClassLoader classLoader = AutoCompleteTest.class.getClassLoader();
+		File file = new File(classLoader.getResource("ngram-models/th-rosenheim-theses.3g.gz").getFile());
+		NGramModel ac = NGramModel.fromArpa(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))));
+
+		// the index must agree with a full scan over all n-grams
+		for (NGramModel.NGram ng : ac.getNgrams()) {
+			String[] h = ng.history();
+			List<NGramModel.NGram> scan = ac.getNgrams().stream()
+					.filter(x -> x.matchHistory(h))
+					.sorted(Comparator.comparingDouble(NGramModel.NGram::getLogp).reversed())
+					.collect(Collectors.toList());
+
+			assertEquals(scan, Arrays.asList(ac.successorNgrams(h)));
+		}
+	}
+
+	@Test
+	void testCompleteLatency() throws IOException {
+		ClassLoader classLoader = AutoCompleteTest.class.getClassLoader();
+		File file = new File(classLoader.getResource("ngram-models/faust.4g.gz").getFile());
+		NGramModel ac = NGramModel.fromArpa(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)))));
+		PackedNGramModel packed = PackedNGramModel.pack(ac);
+
+		// worst case: <s> has the most successors
+		String[][] histories = {{"<s>"}, {"<s>", "und"}, {"ich", "bin", "ein"}, {}};
+
+		for (LanguageModel lm : new LanguageModel [] {ac, packed}) {
+			final int reps = 100000;
+			for (int i = 0; i < reps; i++)
+				Generator.complete(lm, histories[i % histories.length], 10);  // warm-up
+
+			long t = System.nanoTime();
+			for (int i = 0; i < reps; i++)
+				Generator.complete(lm, histories[i % histories.length], 10);
+
+			System.out.println(lm.getClass().getSimpleName() + ": " + (System.nanoTime() - t) / reps + " ns per completion");
+		}
+	}
+
 	private void testAutoComplete(File file) throws IOException {
 		InputStream fileStream = new FileInputStream(file);
 		InputStream gzipStream = new GZIPInputStream(fileStream);
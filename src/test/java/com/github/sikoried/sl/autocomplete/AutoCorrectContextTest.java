@@ -1,12 +1,50 @@
 package com.github.sikoried.sl.autocomplete;
 
+import com.github.sikoried.sl.autocorrect.Distances;
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AutoCorrectContextTest {
+    private static NGramModel load(String name) throws IOException {
+        ClassLoader classLoader = AutoCorrectContextTest.class.getClassLoader();
+        File file = new File(classLoader.getResource("ngram-models/" + name).getFile());
+        return NGramModel.fromArpa(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)));
+    }
 
     @Test
-    void suggest() {
+    void suggest() throws IOException {
+        NGramModel model = load("faust.4g.gz");
+        AutoCorrectContext ac = new AutoCorrectContext();
+
+        // known word: no suggestion
+        List<Pair<String, Double>> exact = ac.suggest(model, new String [] {"<s>", "ich"}, "habe", 2, 5);
+        assertEquals(1, exact.size());
+        assertEquals("habe", exact.get(0).getLeft());
+
+        for (LanguageModel m : new LanguageModel [] {model, PackedNGramModel.pack(model)}) {
+            List<Pair<String, Double>> li = ac.suggest(m, new String [] {"<s>", "ich"}, "hbae", 2, 5);
+            System.out.println(li);
+
+            assertFalse(li.isEmpty());
+            assertTrue(li.size() <= 5);
+            assertEquals("habe", li.get(0).getLeft());
+            for (int i = 0; i < li.size(); i++) {
+                assertTrue(Distances.edit("hbae", li.get(i).getLeft()) <= 2);
+                if (i > 0)
+                    assertTrue(li.get(i - 1).getRight() >= li.get(i).getRight());
+            }
+        }
+
+        // unknown history: backs off to the unigrams
+        List<Pair<String, Double>> li = ac.suggest(model, new String [] {"not-in-the-vocabulary"}, "gretchn", 1, 3);
+        System.out.println(li);
+        assertEquals("gretchen", li.get(0).getLeft());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompletionTest {
+	private static NGramModel load(String name) throws IOException {
+		ClassLoader classLoader = CompletionTest.class.getClassLoader();
+		File file = new File(classLoader.getResource("ngram-models/" + name).getFile());
+		return NGramModel.fromArpa(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)));
+	}
+
+	/// the incremental session must agree with filtering the ranked successors by prefix
+	private static void assertTyping(LanguageModel model, String[] history, String word, int n) {
+		Completion session = new Completion(model, history);
+		for (int i = 1; i <= word.length(); i++) {
+			String prefix = word.substring(0, i);
+			List<Pair<String, Double>> actual = session.type(word.charAt(i - 1), n);
+
+			// expected: best matches of the longest history that has any
+			List<Pair<String, Double>> expected = null;
+			for (int from = Math.max(0, history.length - model.getOrder() + 1); from <= history.length; from++) {
+				LanguageModel.Successors succ = model.successors(history, from, history.length);
+				expected = new ArrayList<>();
+				for (int j = 0; j < succ.size() && expected.size() < n; j++)
+					if (succ.token(j).startsWith(prefix))
+						expected.add(Pair.of(succ.token(j), succ.logp(j)));
+				if (!expected.isEmpty())
+					break;
+			}
+
+			assertEquals(expected.size(), actual.size());
+			for (int j = 0; j < actual.size(); j++) {
+				assertTrue(actual.get(j).getLeft().startsWith(prefix));
+				assertEquals(expected.get(j).getRight(), actual.get(j).getRight(), 1e-6);
+			}
+
+			// same as starting over
+			List<Pair<String, Double>> fresh = Generator.complete(model, history, prefix, n);
+			assertEquals(fresh, actual);
+		}
+	}
+
+	@Test
+	void testPrefix() throws IOException {
+		NGramModel model = load("faust.4g.gz");
+		PackedNGramModel packed = PackedNGramModel.pack(model);
+
+		for (LanguageModel m : new LanguageModel [] {model, packed}) {
+			assertTyping(m, new String [] {"<s>"}, "heinrich", 5);
+			assertTyping(m, new String [] {"<s>", "ich"}, "habe", 5);
+			assertTyping(m, new String [] {"<s>", "ich", "habe"}, "nunmehr", 3);
+			assertTyping(m, new String [] {"not-in-the-vocabulary"}, "und", 10);
+			assertTyping(m, new String [0], "gretchen", 10);
+		}
+
+		// both backends suggest the same
+		Completion a = new Completion(model, new String [] {"<s>"});
+		Completion b = new Completion(packed, new String [] {"<s>"});
+		for (char c : "mephisto".toCharArray()) {
+			List<Pair<String, Double>> sa = a.type(c, 5), sb = b.type(c, 5);
+			assertEquals(sa.size(), sb.size());
+			for (int i = 0; i < sa.size(); i++) {
+				assertEquals(sa.get(i).getLeft(), sb.get(i).getLeft());
+				assertEquals(sa.get(i).getRight(), sb.get(i).getRight(), 1e-6);
+			}
+			System.out.println(a.getPrefix() + " (" + a.size() + ") " + sa);
+		}
+	}
+
+	@Test
+	void testBackspace() throws IOException {
+		NGramModel model = load("th-rosenheim-theses.3g.gz");
+		Completion session = new Completion(model, new String [] {"<s>"});
+
+		List<Pair<String, Double>> before = session.complete("D", 5);
+		session.complete("Di", 5);
+		session.complete("Dix", 5);
+
+		// shorter prefix: starts over
+		assertEquals(before, session.complete("D", 5));
+		List<Pair<String, Double>> all = session.complete("", 5);
+		List<Pair<String, Double>> next = Generator.complete(model, new String [] {"<s>"}, 5);
+		assertEquals(next.size(), all.size());
+		for (int i = 0; i < all.size(); i++)
+			assertEquals(next.get(i).getRight(), all.get(i).getRight(), 1e-6);
+	}
+}
@@ -0,0 +1,50 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LanguageModelTest {
+	static final String arpa = String.join("\n",
+			"\\data\\",
+			"ngram 1=4",
+			"ngram 2=2",
+			"",
+			"\\1-grams:",
+			"-1.0\t<s>\t-0.5",
+			"-0.5\ta\t-0.3",
+			"-0.7\tb\t-0.2",
+			"-0.9\t</s>",
+			"",
+			"\\2-grams:",
+			"-0.2\t<s> a",
+			"-0.1\ta b",
+			"",
+			"\\end\\");
+
+	private static void testKatz(LanguageModel lm) {
+		assertEquals(-0.2, lm.logProb(new String [] {"<s>"}, "a"), 1e-6);
+		assertEquals(-0.1, lm.logProb(new String [] {"x", "a"}, "b"), 1e-6);        // history trimmed to order-1
+		assertEquals(-0.5 - 0.7, lm.logProb(new String [] {"<s>"}, "b"), 1e-6);     // backoff(<s>) + P(b)
+		assertEquals(-0.7, lm.logProb(new String [] {"oov"}, "b"), 1e-6);           // unseen history: no backoff weight
+		assertEquals(Double.NEGATIVE_INFINITY, lm.logProb(new String [] {"a"}, "oov"));
+
+		assertArrayEquals(new double [] {-0.2, -1.2, Double.NEGATIVE_INFINITY},
+				lm.logProb(new String [] {"<s>"}, new String [] {"a", "b", "oov"}), 1e-6);
+
+		// P(a|<s>) + P(b|a) + P(</s>|b)
+		assertEquals(-0.2 - 0.1 - 1.1, lm.sentenceLogProb(new String [] {"a", "b"}), 1e-6);
+		assertEquals(-0.2 - 0.1 - 1.1, lm.sentenceLogProb(new String [] {"<s>", "a", "b", "</s>"}), 1e-6);
+	}
+
+	@Test
+	void testKatzBackoff() throws IOException {
+		NGramModel model = NGramModel.fromArpa(new BufferedReader(new StringReader(arpa)));
+		testKatz(model);
+		testKatz(PackedNGramModel.pack(model));
+	}
+}
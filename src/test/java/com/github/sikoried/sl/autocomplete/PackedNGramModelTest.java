@@ -0,0 +1,65 @@
+package com.github.sikoried.sl.autocomplete;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackedNGramModelTest {
+	private static NGramModel load(String name) throws IOException {
+		ClassLoader classLoader = PackedNGramModelTest.class.getClassLoader();
+		File file = new File(classLoader.getResource("ngram-models/" + name).getFile());
+		return NGramModel.fromArpa(new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8)));
+	}
+
+	/// the packed model must answer exactly like the hashed one
+	static void assertSameSuccessors(NGramModel expected, LanguageModel actual) {
+		assertEquals(expected.getOrder(), actual.getOrder());
+
+		for (NGramModel.NGram ng : expected.getNgrams()) {
+			assertTrue(actual.contains(ng.w[0]));
+
+			String[] h = ng.history();
+			LanguageModel.Successors a = expected.successors(h);
+			LanguageModel.Successors b = actual.successors(h);
+
+			assertEquals(a.size(), b.size());
+			for (int i = 0; i < a.size(); i++) {
+				assertEquals(a.token(i), b.token(i));
+				assertEquals(a.logp(i), b.logp(i), 1e-6);
+			}
+		}
+
+		assertFalse(actual.contains("not-in-the-vocabulary"));
+		assertEquals(0, actual.successors(new String [] {"not-in-the-vocabulary"}).size());
+	}
+
+	@Test
+	void testPack() throws IOException {
+		for (String name : new String [] {"werther.5g.gz", "faust.4g.gz", "th-rosenheim-theses.3g.gz"}) {
+			NGramModel model = load(name);
+			PackedNGramModel packed = PackedNGramModel.pack(model);
+
+			assertEquals(model.getNgrams().size(), packed.size());
+			assertSameSuccessors(model, packed);
+		}
+	}
+
+	@Test
+	void testMapped() throws IOException {
+		NGramModel model = load("werther.5g.gz");
+		PackedNGramModel packed = PackedNGramModel.pack(model);
+
+		Path file = Files.createTempFile("werther", ".bin");
+		file.toFile().deleteOnExit();
+		packed.write(file);
+
+		LanguageModel mapped = NGramModel.fromMapped(file);
+		assertSameSuccessors(model, mapped);
+	}
+}
@@ -1,8 +1,17 @@
 package com.github.sikoried.sl.autocorrect;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.junit.jupiter.api.Test;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class AutoCorrectSimpleTest {
 
@@ -43,4 +52,166 @@ class AutoCorrectSimpleTest {
 		}
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	void testDeletionIndex() throws IOException {
+		ClassLoader classLoader = AutoCorrectSimple.class.getClassLoader();
+		File file = new File(classLoader.getResource("count_1w.txt.zip").getFile());
+
+		long t0 = System.currentTimeMillis();
+		AutoCorrectSimple ac = AutoCorrectSimple.fromZippedTextCorpus(file, "count_1w.txt");
+		System.out.println("indexed in " + (System.currentTimeMillis() - t0) + "ms");
+
+		// same lexicon, full scan
+		AutoCorrectSimple scan = new AutoCorrectSimple(ac.getLogpw(), false);
+
+		// compute every query (also for the timing)
+		ac.setCache(null);
+		scan.setCache(null);
+
+		String[] xs = {"soch", "sichxx", "shageshpear", "sheapard", "teh", "recieve", "a", "qz", "xyzzy", "shagesbeer", "accomodate"};
+		for (int m = 0; m <= AutoCorrectSimple.INDEX_EDITS; m++) {
+			for (String x : xs) {
+				assertEquals(scan.suggestA(x, m, 10), ac.suggestA(x, m, 10));
+				assertEquals(scan.suggestB(x, m, 10, 0.2, 1.0), ac.suggestB(x, m, 10, 0.2, 1.0));
+			}
+		}
+
+		// timing
+		for (AutoCorrectSimple a : new AutoCorrectSimple [] {scan, ac}) {
+			long t = System.nanoTime();
+			for (String x : xs)
+				a.suggestB(x, 2, 10, 0.2, 1.0);
+			System.out.println((a == ac ? "indexed: " : "scan: ") + (System.nanoTime() - t) / 1000 / xs.length + " us per query");
+		}
+	}
+
+	@Test
+	void testParallel() throws IOException {
+		ClassLoader classLoader = AutoCorrectSimple.class.getClassLoader();
+		File file = new File(classLoader.getResource("count_1w.txt.zip").getFile());
+		AutoCorrectSimple ac = AutoCorrectSimple.fromZippedTextCorpus(file, "count_1w.txt");
+
+		String[] xs = {"soch", "sichxx", "shageshpear", "sheapard", "teh", "shagesbeer"};
+
+		// sequential reference; compute every query
+		ac.setCache(null);
+		ac.setPool(null);
+		List<List<Pair<String, Double>>> expected = new ArrayList<>();
+		long t0 = System.nanoTime();
+		for (String x : xs) {
+			expected.add(ac.suggestB(x, 3, 10, 0.2, 1.0));  // m > INDEX_EDITS: full scan
+			expected.add(ac.suggestD(x, 2, 10, 1.0, 1.0));
+		}
+		long t1 = System.nanoTime();
+
+		// same ranking, whatever the pool
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (ForkJoinPool p : new ForkJoinPool [] {pool, ForkJoinPool.commonPool()}) {
+			ac.setPool(p);
+			long t2 = System.nanoTime();
+			for (int i = 0; i < xs.length; i++) {
+				assertEquals(expected.get(2 * i), ac.suggestB(xs[i], 3, 10, 0.2, 1.0));
+				assertEquals(expected.get(2 * i + 1), ac.suggestD(xs[i], 2, 10, 1.0, 1.0));
+			}
+			long t3 = System.nanoTime();
+			System.out.println("parallelism " + p.getParallelism() + ": " + (t3 - t2) / 1000 / xs.length
+					+ " us per query pair, sequential: " + (t1 - t0) / 1000 / xs.length);
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	void testCache() {
+		AutoCorrectSimple ac = AutoCorrectSimple.fromDummy();
+		SuggestionCache<SuggestionCache.Key, List<Pair<String, Double>>> cache = ac.getCache();
+
+		List<Pair<String, Double>> first = ac.suggest("soch");
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+
+		// same query and parameters: the same list
+		assertSame(first, ac.suggest("soch"));
+		assertEquals(1, cache.hits());
+		assertThrows(UnsupportedOperationException.class, () -> first.add(Pair.of("x", 0.0)));
+
+		// other method or parameters: separate entries
+		ac.suggestD("soch", 2, 10, 1.0, 1.0);
+		ac.suggestB("soch", 2, 10, 0.2, 1.0);
+		assertEquals(3, cache.misses());
+		assertEquals(3, cache.size());
+
+		// reload: the cache is dropped, the suggestions follow the new lexicon
+		Map<String, Double> logpw = new LinkedHashMap<>();
+		logpw.put("sock", Math.log(0.5));
+		logpw.put("such", Math.log(0.5));
+		ac.reload(Lexicon.fromLogp(logpw));
+		assertEquals(0, cache.size());
+
+		List<Pair<String, Double>> reloaded = ac.suggest("soch");
+		assertEquals(4, cache.misses());
+		assertNotEquals(first, reloaded);
+		assertEquals(new AutoCorrectSimple(logpw).suggest("soch"), reloaded);
+		System.out.println("soch => " + reloaded + " " + cache);
+	}
+
+	/** full scan without any pruning, sorted stably as the original implementation did */
+	private static List<Pair<String, Double>> reference(Map<String, Double> logpw, String x, int m, int n,
+			double lambda, double z, boolean keyboard) {
+		List<Pair<String, Double>> li = new ArrayList<>();
+		for (Map.Entry<String, Double> e : logpw.entrySet()) {
+			if (Math.abs(x.length() - e.getKey().length()) > m)
+				continue;
+			double ed = keyboard ? Distances.editd(x, e.getKey()) : Distances.edit(x, e.getKey());
+			if (ed > (keyboard ? m + 6.0 : m))
+				continue;
+			li.add(Pair.of(e.getKey(), -lambda * z * ed + e.getValue()));
+		}
+		return li.stream()
+				.sorted((a, b) -> Double.compare(b.getValue(), a.getValue()))
+				.limit(n)
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	void testThresholdPruning() throws IOException {
+		ClassLoader classLoader = AutoCorrectSimple.class.getClassLoader();
+		File file = new File(classLoader.getResource("count_1w.txt.zip").getFile());
+		AutoCorrectSimple ac = AutoCorrectSimple.fromZippedTextCorpus(file, "count_1w.txt");
+
+		String[] xs = {"soch", "sichxx", "sheapard", "tjeh", "shagesbeer", "qqqqqqqqqqqqqqqqqqqqqqqqqqqqqq"};
+		double[] lambdas = {0.2, 1.0, 0.0, -0.5};
+		ac.setCache(null);
+		for (ForkJoinPool p : new ForkJoinPool [] {null, ForkJoinPool.commonPool()}) {
+			ac.setPool(p);
+			for (String x : xs) {
+				assertFalse(ac.getLogpw().containsKey(x));
+				for (double lambda : lambdas) {
+					assertEquals(reference(ac.getLogpw(), x, 3, 10, lambda, 1.0, false), ac.suggestB(x, 3, 10, lambda, 1.0));
+					assertEquals(reference(ac.getLogpw(), x, 2, 10, lambda, 1.0, true), ac.suggestD(x, 2, 10, lambda, 1.0));
+				}
+				assertEquals(0, ac.suggestD(x, 2, 0, 1.0, 1.0).size());
+			}
+		}
+
+		// m beyond the longest word: all length buckets, nothing sized by m
+		ac.setPool(null);
+		for (int m : new int [] {100000000, Integer.MAX_VALUE}) {
+			assertEquals(ac.suggestA("dre", 100, 5), ac.suggestA("dre", m, 5));
+			assertEquals(ac.suggestA("sheapard", 100, 5), ac.suggestA("sheapard", m, 5));
+			assertEquals(reference(ac.getLogpw(), "sheapard", m, 10, 0.2, 1.0, false), ac.suggestB("sheapard", m, 10, 0.2, 1.0));
+			assertEquals(reference(ac.getLogpw(), "sheapard", m, 10, 0.2, 1.0, true), ac.suggestD("sheapard", m, 10, 0.2, 1.0));
+		}
+
+		// timing
+		ac.setPool(null);
+		long t = System.nanoTime();
+		for (String x : xs)
+			ac.suggestD(x, 2, 10, 1.0, 1.0);
+		System.out.println("suggestD, pruned: " + (System.nanoTime() - t) / 1000 / xs.length + " us per query");
+		t = System.nanoTime();
+		for (String x : xs)
+			reference(ac.getLogpw(), x, 2, 10, 1.0, 1.0, true);
+		System.out.println("suggestD, full scan: " + (System.nanoTime() - t) / 1000 / xs.length + " us per query");
+	}
+}
@@ -0,0 +1,106 @@
+package com.github.sikoried.sl.autocorrect;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceEngineTest {
+	private static String random(Random rnd, String alphabet, int n) {
+		char[] cs = new char [n];
+		for (int i = 0; i < n; i++)
+			cs[i] = alphabet.charAt(rnd.nextInt(alphabet.length()));
+		return new String(cs);
+	}
+
+	@Test
+	void testSameAsDistances() {
+		Random rnd = new Random(6);
+		String[] alphabets = {"abc", "asdfqwerüö", "aäß€中"};
+
+		for (int rep = 0; rep < 300; rep++) {
+			String alphabet = alphabets[rep % alphabets.length];
+			int max = (rep % 10 == 0 ? 90 : 15);
+
+			String[] ws = new String [50];
+			for (int i = 0; i < ws.length; i++)
+				ws[i] = random(rnd, alphabet, rnd.nextInt(max));
+			CharArena words = new CharArena(ws);
+
+			String x = random(rnd, alphabet, rnd.nextInt(max));
+			DistanceEngine engine = new DistanceEngine(x);
+
+			int[] ids = new int [ws.length];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = i;
+
+			int m = rnd.nextInt(5);
+			int[] eds = new int [ids.length];
+			double[] edds = new double [ids.length];
+			engine.edit(words, ids, ids.length, m, eds);
+			engine.editd(words, ids, ids.length, m + 6.0, edds);
+
+			for (int i = 0; i < ws.length; i++) {
+				assertEquals(ws[i], words.word(i));
+				assertEquals(Distances.edit(x, ws[i]), engine.edit(words, i), x + " " + ws[i]);
+				assertEquals(Distances.edit(x, ws[i]), engine.edit(ws[i]), x + " " + ws[i]);
+				assertEquals(Distances.edit(x, ws[i], m), eds[i], x + " " + ws[i]);
+				assertEquals(Distances.editd(x, ws[i], m + 6.0), edds[i], 0.0, x + " " + ws[i]);
+				assertEquals(Distances.editd(x, ws[i], 3.5, Keyboard.QWERTZ),
+						new DistanceEngine(x, Keyboard.QWERTZ).editd(ws[i], 3.5), 0.0);
+			}
+		}
+	}
+
+	@Test
+	void testReset() {
+		Random rnd = new Random(9);
+		String[] alphabets = {"abc", "aäß€中"};
+		DistanceEngine engine = new DistanceEngine("", Keyboard.QWERTZ);
+
+		// one engine for many queries, short and long, gives the same as a fresh one each
+		for (int rep = 0; rep < 300; rep++) {
+			String alphabet = alphabets[rep % alphabets.length];
+			String x = random(rnd, alphabet, rnd.nextInt(rep % 7 == 0 ? 90 : 15));
+			String y = random(rnd, alphabet, rnd.nextInt(15));
+
+			engine.reset(x);
+			assertEquals(x, engine.getQuery());
+			assertEquals(Distances.edit(x, y), engine.edit(y), x + " " + y);
+			assertEquals(new DistanceEngine(x, Keyboard.QWERTZ).editd(y, 5.5), engine.editd(y, 5.5), 0.0);
+		}
+	}
+
+	@Test
+	void testBenchmark() {
+		Random rnd = new Random(7);
+		String[] ws = new String [100000];
+		for (int i = 0; i < ws.length; i++)
+			ws[i] = random(rnd, "abcdefghijklmnopqrstuvwxyz", 3 + rnd.nextInt(9));
+		CharArena words = new CharArena(ws);
+
+		int[] ids = new int [ws.length];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = i;
+		int[] eds = new int [ids.length];
+
+		for (int rep = 0; rep < 3; rep++) {
+			String x = ws[rep];
+
+			long t0 = System.nanoTime();
+			long sum = 0;
+			for (String w : ws)
+				sum += Distances.edit(x, w, 2);
+			long t1 = System.nanoTime();
+			new DistanceEngine(x).edit(words, ids, ids.length, 2, eds);
+			for (int d : eds)
+				sum -= d;
+			long t2 = System.nanoTime();
+			assertEquals(0, sum);
+
+			System.out.printf("pairwise: %d ns/word, engine: %d ns/word%n",
+					(t1 - t0) / ws.length, (t2 - t1) / ws.length);
+		}
+	}
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -53,6 +54,34 @@ class DistancesTest {
 			System.out.println(Distances.penalty(a.charAt(i), b.charAt(i)));
 	}
 
+	@Test
+	void testKeyboard() {
+		// the matrix must hold the Euclidean distances of the positions, off-keyboard included
+		String chars = "qwertyuiopüasdfghjklöäzxcvbnmß1 Q€";
+		for (char a : chars.toCharArray()) {
+			for (char b : chars.toCharArray()) {
+				int dr = Keyboard.DEFAULT.row(a) - Keyboard.DEFAULT.row(b);
+				int dc = Keyboard.DEFAULT.col(a) - Keyboard.DEFAULT.col(b);
+				assertEquals(Math.sqrt(dr * dr + dc * dc), Distances.penalty(a, b), 0.0);
+			}
+		}
+		assertEquals(Pair.of(3, -1), Distances.coord('€'));
+		assertEquals(Pair.of(-1, -1), Pair.of(Keyboard.QWERTY.row('ü'), Keyboard.QWERTY.col('ü')));
+		assertEquals(Pair.of(1, 5), Pair.of(Keyboard.QWERTY.row('y'), Keyboard.QWERTY.col('y')));
+
+		// on QWERTZ, z and y swap places
+		int[] cost = {0, 1, 1, 1};
+		assertEquals(Distances.editd("zahl", "yahl"), Distances.editd("yahl", "zahl", cost, Keyboard.QWERTZ));
+		assertTrue(Keyboard.QWERTZ.penalty('z', 't') < Keyboard.DEFAULT.penalty('z', 't'));
+		assertEquals(Distances.editd("hzt", "htt", cost, Keyboard.QWERTZ), Distances.editd("hzt", "htt", 10.0, Keyboard.QWERTZ), 1e-9);
+
+		// custom layouts
+		Keyboard abc = new Keyboard("abc", "def");
+		assertEquals(1.0, abc.penalty('a', 'd'), 0.0);
+		assertEquals(Math.sqrt(5), abc.penalty('a', 'f'), 0.0);
+		assertEquals(Math.sqrt(5), abc.penalty('a', 'x'), 0.0);
+	}
+
 	@Test
 	void testEditd() {
 		String[][] xs = {
@@ -70,4 +99,126 @@ class DistancesTest {
 			System.err.println(pair[0] + ":" + pair[1] + " = " + d + " " + trace);
 		}
 	}
-}
\ No newline at end of file
+
+	private static String random(Random rnd, String alphabet, int n) {
+		char[] cs = new char [n];
+		for (int i = 0; i < n; i++)
+			cs[i] = alphabet.charAt(rnd.nextInt(alphabet.length()));
+		return new String(cs);
+	}
+
+	@Test
+	void testKernels() {
+		// the distance-only kernels must agree with the traceback versions
+		Random rnd = new Random(1);
+		int[][] costs = {{0, 1, 1, 1}, {0, 2, 1, 1}, {0, 1, 2, 3}};
+		for (int k = 0; k < 20000; k++) {
+			String a = random(rnd, "asdqwü", rnd.nextInt(12));
+			String b = random(rnd, "asdqwü", rnd.nextInt(12));
+			int[] cost = costs[k % costs.length];
+
+			assertEquals(Distances.edit(a, b, cost, new LinkedList<>()), Distances.edit(a, b, cost));
+			assertEquals(Distances.editd(a, b, cost, new LinkedList<>()), Distances.editd(a, b, cost), 0.0);
+		}
+
+		// ties must not inflate the distance
+		assertEquals(3, Distances.edit("cbac", "c"));
+	}
+
+	@Test
+	void testBitParallel() {
+		// unit-cost results must be identical to the DP (the traceback version always runs the DP)
+		Random rnd = new Random(4);
+		String[] alphabets = {"ab", "abcdefghijklmnopqrstuvwxyz", "aäöüß€\u4e2d"};
+		for (int k = 0; k < 50000; k++) {
+			String alphabet = alphabets[k % alphabets.length];
+			int max = (k % 10 == 0 ? 100 : 20);
+			String a = random(rnd, alphabet, rnd.nextInt(max));
+			String b = random(rnd, alphabet, rnd.nextInt(max));
+
+			int expected = Distances.edit(a, b, new int[] {0, 1, 1, 1}, new LinkedList<>());
+			assertEquals(expected, Distances.edit(a, b), a + " " + b);
+			assertEquals(expected, Distances.edit(b, a), a + " " + b);
+		}
+
+		// patterns of exactly 64 and 65 chars
+		String a64 = random(rnd, "abc", 64), a65 = a64 + "a";
+		for (String b : new String [] {"", "abc", random(rnd, "abc", 64), random(rnd, "abc", 200)}) {
+			assertEquals(Distances.edit(a64, b, new int[] {0, 1, 1, 1}, new LinkedList<>()), Distances.edit(a64, b));
+			assertEquals(Distances.edit(a65, b, new int[] {0, 1, 1, 1}, new LinkedList<>()), Distances.edit(a65, b));
+		}
+	}
+
+	@Test
+	void testBounded() {
+		Random rnd = new Random(3);
+		for (int k = 0; k < 20000; k++) {
+			String a = random(rnd, "abcö", rnd.nextInt(12));
+			String b = random(rnd, "abcö", rnd.nextInt(12));
+			int max = rnd.nextInt(5);
+
+			int d = Distances.edit(a, b);
+			assertEquals(d <= max ? d : max + 1, Distances.edit(a, b, max), a + " " + b);
+
+			double dd = Distances.editd(a, b);
+			double bounded = Distances.editd(a, b, max + 6.0);
+			if (dd <= max + 6.0)
+				assertEquals(dd, bounded, 1e-9);
+			else
+				assertEquals(Double.POSITIVE_INFINITY, bounded, 0.0);
+		}
+
+		// bounds beyond the longer string are the plain distance (and must not overflow)
+		for (int max : new int [] {Integer.MAX_VALUE, Integer.MAX_VALUE - 1, 1000}) {
+			assertEquals(3, Distances.edit("haus", "h", max));
+			assertEquals(4, Distances.edit("", "haus", max));
+			assertEquals(0, Distances.edit("", "", max));
+			assertEquals(Distances.edit("kühler schrank", "schüler krank"), Distances.edit("kühler schrank", "schüler krank", max));
+		}
+	}
+
+	@Test
+	void testBenchmark() {
+		Random rnd = new Random(2);
+		String[] xs = new String [1000];
+		for (int i = 0; i < xs.length; i++)
+			xs[i] = random(rnd, "abcdefghijklmnopqrstuvwxyz", 4 + rnd.nextInt(8));
+
+		int[] cost = {0, 1, 1, 1};
+		for (int rep = 0; rep < 3; rep++) {
+			long sum = 0;
+			long t0 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				sum += Distances.edit(xs[i - 1], xs[i], cost, new LinkedList<>());
+			long t1 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				sum -= Distances.edit(xs[i - 1], xs[i]);
+			long t2 = System.nanoTime();
+			assertEquals(0, sum);
+
+			double dsum = 0;
+			long t3 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				dsum += Distances.editd(xs[i - 1], xs[i], cost, new LinkedList<>());
+			long t4 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				dsum -= Distances.editd(xs[i - 1], xs[i]);
+			long t5 = System.nanoTime();
+			assertEquals(0.0, dsum, 1e-6);
+
+			System.out.printf("edit: %d ns/call with trace, %d ns/call distance only; editd: %d vs %d ns/call%n",
+					(t1 - t0) / xs.length, (t2 - t1) / xs.length, (t4 - t3) / xs.length, (t5 - t4) / xs.length);
+
+			// bounded, as used by the suggesters
+			long t6 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				sum += Distances.edit(xs[i - 1], xs[i], 2);
+			long t7 = System.nanoTime();
+			for (int i = 1; i < xs.length; i++)
+				dsum += Distances.editd(xs[i - 1], xs[i], 8.0);
+			long t8 = System.nanoTime();
+			System.out.printf("bounded: edit %d ns/call (m=2), editd %d ns/call (m=8)%n",
+					(t7 - t6) / xs.length, (t8 - t7) / xs.length);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package com.github.sikoried.sl.autocorrect;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LexiconTest {
+	private static final String CORPUS = "die 10\nder\t20\n  für  5\nhaus 3\nder 30\n\nüber 7\n";
+
+	private static Lexicon corpus() throws IOException {
+		return Lexicon.read(new ByteArrayInputStream(CORPUS.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	void testRead() throws IOException {
+		Lexicon lex = corpus();
+
+		// sorted, duplicates keep the last count, but all add to the total
+		assertEquals(5, lex.size());
+		String[] expected = {"der", "die", "für", "haus", "über"};
+		long[] counts = {30, 10, 5, 3, 7};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], lex.word(i));
+			assertEquals(counts[i], lex.count(i));
+			assertEquals(Math.log(counts[i]) - Math.log(75), lex.logp(i), 0.0);
+			assertEquals(i, lex.find(expected[i]));
+		}
+		assertEquals(75, lex.getTotal());
+
+		assertEquals(-1, lex.find("das"));
+		assertEquals(-1, lex.find(""));
+		assertFalse(lex.contains("fur"));
+		assertTrue(lex.contains(new StringBuilder("über")));
+
+		assertThrows(IOException.class, () -> Lexicon.read(new ByteArrayInputStream("nocount\n".getBytes())));
+	}
+
+	@Test
+	void testFromLogp() {
+		Map<String, Double> pw = new TreeMap<>();
+		pw.put("b", -1.0);
+		pw.put("a", -2.0);
+
+		Lexicon lex = Lexicon.fromLogp(pw);
+		assertEquals("a", lex.word(0));
+		assertEquals(-1.0, lex.logp(lex.find("b")), 0.0);
+		assertFalse(lex.hasCounts());
+		assertThrows(IllegalStateException.class, () -> lex.count(0));
+	}
+
+	@Test
+	void testCache() throws Exception {
+		File dir = Files.createTempDirectory("lexicon").toFile();
+		File zip = new File(dir, "corpus.zip");
+		try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip))) {
+			zos.putNextEntry(new ZipEntry("corpus.txt"));
+			zos.write(CORPUS.getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+		}
+
+		File cacheDir = new File(dir, "cache");
+		Lexicon parsed = Lexicon.load(zip, "corpus.txt", cacheDir);
+		File cache = Lexicon.cacheFile(zip, "corpus.txt", cacheDir);
+		assertTrue(cache.exists());
+
+		// nothing next to the zip, and no temporary files left over
+		assertArrayEquals(new String [] {"cache", "corpus.zip"}, sorted(dir.list()));
+		assertArrayEquals(new String [] {cache.getName()}, cacheDir.list());
+
+		// from the cache: same words, counts, probabilities and lookups
+		Lexicon mapped = Lexicon.load(zip, "corpus.txt", cacheDir);
+		assertEquals(parsed.size(), mapped.size());
+		for (int i = 0; i < parsed.size(); i++) {
+			assertEquals(parsed.word(i), mapped.word(i));
+			assertEquals(parsed.count(i), mapped.count(i));
+			assertEquals(parsed.logp(i), mapped.logp(i), 0.0);
+			assertEquals(i, mapped.find(parsed.word(i)));
+		}
+		assertEquals(parsed.getTotal(), mapped.getTotal());
+
+		// the cache knows its entry: another entry of the same zip has a file of its own
+		assertEquals(parsed.size(), Lexicon.map(cache.toPath(), "corpus.txt").size());
+		assertThrows(IOException.class, () -> Lexicon.map(cache.toPath(), "other.txt"));
+		assertNotEquals(cache, Lexicon.cacheFile(zip, "other.txt", cacheDir));
+
+		// a corrupt cache is parsed again (and replaced)
+		Files.write(cache.toPath(), new byte [] {1, 2, 3});
+		assertThrows(IOException.class, () -> Lexicon.map(cache.toPath()));
+		assertEquals(parsed.size(), Lexicon.load(zip, "corpus.txt", cacheDir).size());
+		assertEquals(parsed.size(), Lexicon.map(cache.toPath()).size());
+
+		// so is a header that doesn't fit: negative sizes, or a table that is full (find() would
+		// never stop) or not a power of 2
+		byte[] good = Files.readAllBytes(cache.toPath());
+		int n = parsed.size();
+		for (int[] patch : new int [][] {{8, -1}, {12, -1}, {16, n}, {16, 3 * n}, {16, -(1 << 31)}}) {
+			byte[] bad = good.clone();
+			ByteBuffer.wrap(bad).order(ByteOrder.LITTLE_ENDIAN).putInt(patch[0], patch[1]);
+			Files.write(cache.toPath(), bad);
+			assertThrows(IOException.class, () -> Lexicon.map(cache.toPath()));
+			assertEquals(parsed.size(), Lexicon.load(zip, "corpus.txt", cacheDir).size());
+			assertArrayEquals(good, Files.readAllBytes(cache.toPath()));
+		}
+
+		// concurrent loads only ever see complete caches
+		cache.delete();
+		ExecutorService ex = Executors.newFixedThreadPool(4);
+		List<Future<Lexicon>> fs = new ArrayList<>();
+		for (int i = 0; i < 16; i++)
+			fs.add(ex.submit(() -> Lexicon.load(zip, "corpus.txt", cacheDir)));
+		for (Future<Lexicon> f : fs)
+			assertEquals(parsed.size(), f.get().size());
+		ex.shutdown();
+		assertArrayEquals(new String [] {cache.getName()}, cacheDir.list());
+
+		// without a cache directory, the corpus is parsed every time
+		assertEquals(parsed.size(), Lexicon.load(zip, "corpus.txt", null).size());
+
+		// the default directory is configurable
+		File other = new File(dir, "other");
+		System.setProperty(Lexicon.CACHE_DIR_PROPERTY, other.getPath());
+		try {
+			Lexicon.load(zip, "corpus.txt");
+			assertTrue(Lexicon.cacheFile(zip, "corpus.txt", other).exists());
+		} finally {
+			System.clearProperty(Lexicon.CACHE_DIR_PROPERTY);
+		}
+
+		// by default, the cache is the user's own
+		File home = new File(dir, "home"), userCache = new File(home, ".cache" + File.separator + "sl-lexicon");
+		String userHome = System.getProperty("user.home");
+		System.setProperty("user.home", home.getPath());
+		try {
+			Lexicon.load(zip, "corpus.txt");
+			assertTrue(Lexicon.cacheFile(zip, "corpus.txt", userCache).exists());
+		} finally {
+			System.setProperty("user.home", userHome);
+		}
+
+		assertThrows(IOException.class, () -> Lexicon.readZip(zip, "other.txt"));
+
+		for (File d : new File [] {cacheDir, other, userCache})
+			for (File f : d.listFiles())
+				f.delete();
+		cacheDir.delete();
+		other.delete();
+		userCache.delete();
+		userCache.getParentFile().delete();
+		home.delete();
+		zip.delete();
+		dir.delete();
+	}
+
+	private static String[] sorted(String[] xs) {
+		Arrays.sort(xs);
+		return xs;
+	}
+
+	@Test
+	void testCount1w() throws IOException {
+		ClassLoader classLoader = AutoCorrectSimple.class.getClassLoader();
+		File file = new File(classLoader.getResource("count_1w.txt.zip").getFile());
+
+		long t0 = System.currentTimeMillis();
+		Lexicon parsed = Lexicon.readZip(file, "count_1w.txt");
+		long t1 = System.currentTimeMillis();
+
+		// same probabilities as the TreeMap the corpus was read into before
+		Map<String, Double> pw = new TreeMap<>();
+		double sum = 0;
+		try (ZipInputStream zis = new ZipInputStream(new FileInputStream(file))) {
+			zis.getNextEntry();
+			BufferedReader br = new BufferedReader(new InputStreamReader(zis, StandardCharsets.UTF_8));
+			String line;
+			while ((line = br.readLine()) != null) {
+				String[] pair = line.split("\\s+");
+				long count = Long.parseLong(pair[1]);
+				pw.put(pair[0], Math.log(count));
+				sum += count;
+			}
+		}
+
+		assertEquals(pw.size(), parsed.size());
+		int i = 0;
+		for (Map.Entry<String, Double> e : pw.entrySet()) {
+			assertEquals(e.getKey(), parsed.word(i));
+			assertEquals(e.getValue() - Math.log(sum), parsed.logp(i++), 0.0);
+		}
+
+		File tmp = File.createTempFile("count_1w", ".lex");
+		parsed.write(tmp.toPath());
+		long t2 = System.currentTimeMillis();
+		Lexicon mapped = Lexicon.map(tmp.toPath());
+		long t3 = System.currentTimeMillis();
+		assertEquals(parsed.size(), mapped.size());
+		tmp.delete();
+
+		System.out.println("parsed " + parsed.size() + " words in " + (t1 - t0) + "ms, mapped in " + (t3 - t2) + "ms");
+	}
+}
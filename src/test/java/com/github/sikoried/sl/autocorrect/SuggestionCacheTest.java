@@ -0,0 +1,110 @@
+package com.github.sikoried.sl.autocorrect;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuggestionCacheTest {
+
+	@Test
+	void testKey() {
+		Object scope = new Object();
+		assertEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0),
+				new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0));
+		assertEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0).hashCode(),
+				new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0).hashCode());
+		assertEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0, scope),
+				new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0, scope));
+
+		assertNotEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0),
+				new SuggestionCache.Key("B", "soch", 2, 10, 0.2, 1.0));
+		assertNotEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0),
+				new SuggestionCache.Key("D", "soch", 3, 10, 0.2, 1.0));
+		assertNotEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0),
+				new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 0.5));
+		assertNotEquals(new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0, scope),
+				new SuggestionCache.Key("D", "soch", 2, 10, 0.2, 1.0, new Object()));
+	}
+
+	@Test
+	void testLru() {
+		SuggestionCache<String, String> cache = new SuggestionCache<>(2, SuggestionCache.Policy.LRU);
+		AtomicInteger computed = new AtomicInteger();
+
+		cache.get("a", k -> { computed.incrementAndGet(); return k.toUpperCase(); });
+		cache.get("b", k -> { computed.incrementAndGet(); return k.toUpperCase(); });
+		assertEquals("A", cache.get("a", k -> { computed.incrementAndGet(); return k.toUpperCase(); }));
+		assertEquals(2, computed.get());
+		assertEquals(1, cache.hits());
+		assertEquals(2, cache.misses());
+
+		// b is the least recently used
+		cache.get("c", String::toUpperCase);
+		assertEquals(1, cache.evictions());
+		assertEquals(2, cache.size());
+		assertNotNull(cache.getIfPresent("a"));
+		assertNull(cache.getIfPresent("b"));
+		assertNotNull(cache.getIfPresent("c"));
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertNull(cache.getIfPresent("a"));
+		System.out.println(cache);
+	}
+
+	@Test
+	void testTinyLfu() {
+		SuggestionCache<String, String> lru = new SuggestionCache<>(10, SuggestionCache.Policy.LRU);
+		SuggestionCache<String, String> lfu = new SuggestionCache<>(10, SuggestionCache.Policy.TINY_LFU);
+
+		// a few frequent queries, interleaved with a scan of one-off queries
+		for (SuggestionCache<String, String> cache : Arrays.asList(lru, lfu)) {
+			for (int i = 0; i < 1000; i++) {
+				cache.get("frequent" + (i % 5), String::toUpperCase);
+				cache.get("once" + i, String::toUpperCase);
+				cache.get("once" + (i + 10000), String::toUpperCase);
+				cache.get("once" + (i + 20000), String::toUpperCase);
+			}
+			System.out.println(cache);
+		}
+
+		// the scan flushes the LRU cache, TinyLFU keeps the frequent queries
+		assertTrue(lfu.hits() > 900);
+		assertTrue(lfu.hits() > 2 * lru.hits());
+		assertTrue(lfu.evictions() < lru.evictions());
+		for (int i = 0; i < 5; i++)
+			assertNotNull(lfu.getIfPresent("frequent" + i));
+	}
+
+	@Test
+	void testConcurrent() throws Exception {
+		SuggestionCache<Integer, Integer> cache = new SuggestionCache<>(64);
+		ExecutorService ex = Executors.newFixedThreadPool(4);
+
+		List<Future<?>> fs = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			final int seed = t;
+			fs.add(ex.submit(() -> {
+				for (int i = 0; i < 10000; i++) {
+					int k = (i * 31 + seed) % 200;
+					assertEquals(Integer.valueOf(2 * k), cache.get(k, x -> 2 * x));
+				}
+			}));
+		}
+		for (Future<?> f : fs)
+			f.get();
+		ex.shutdown();
+
+		assertEquals(40000, cache.hits() + cache.misses());
+		assertTrue(cache.size() <= 64);
+		System.out.println(cache);
+	}
+}
@@ -0,0 +1,356 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.jstk.framed.DTMF;
+import com.github.sikoried.jstk.framed.FFT;
+import com.github.sikoried.jstk.framed.Window;
+import com.github.sikoried.jstk.io.FrameSource;
+import com.github.sikoried.jstk.sampled.AudioFileReader;
+import com.github.sikoried.jstk.sampled.AudioSource;
+import com.github.sikoried.jstk.sampled.RawAudioFormat;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DtmfDecoderEngineTest {
+	static final String sWindow = "hamm,25,10";
+
+	/** row and column frequencies of the keys, in the order of DtmfDecoder.labels */
+	private static final double[] rows = {697, 770, 852, 941};
+	private static final double[] cols = {1209, 1336, 1477, 1633};
+
+	private static String keys(Random rnd, int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < n; i++)
+			sb.append(DtmfDecoder.labels[1 + rnd.nextInt(16)]);
+		return sb.toString();
+	}
+
+	/** 16 bit wav of the keys, 100 ms tone and 100 ms pause each */
+	private static File synthesize(String keys, int rate) throws Exception {
+		final int len = rate / 10;
+		short[] samples = new short [2 * len * keys.length()];
+		for (int k = 0; k < keys.length(); k++) {
+			int s = new String(DtmfDecoder.labels).indexOf(keys.charAt(k)) - 1;
+			double f1 = rows[s / 4], f2 = cols[s % 4];
+			for (int i = 0; i < len; i++)
+				samples[2 * len * k + i] = (short) (8000 * (Math.sin(2 * Math.PI * f1 * i / rate) + Math.sin(2 * Math.PI * f2 * i / rate)));
+		}
+
+		byte[] bytes = new byte [2 * samples.length];
+		for (int i = 0; i < samples.length; i++) {
+			bytes[2 * i] = (byte) samples[i];
+			bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+		}
+
+		File f = File.createTempFile("dtmf-" + keys, ".wav");
+		f.deleteOnExit();
+		AudioFormat format = new AudioFormat(rate, 16, 1, true, false);
+		AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(bytes), format, samples.length), AudioFileFormat.Type.WAVE, f);
+		return f;
+	}
+
+	private static DTMF frontend(File f) throws Exception {
+		String inFile = f.getAbsolutePath();
+		AudioSource as = new AudioFileReader(inFile, RawAudioFormat.create("f:" + inFile), true);
+		Window w = Window.create(as, sWindow);
+		return new DTMF(new FFT(w));
+	}
+
+	@Test
+	void testChannels() throws Exception {
+		Random rnd = new Random(11);
+		final int C = 300;
+
+		List<List<double[]>> streams = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int c = 0; c < C; c++) {
+			List<double[]> frames = StreamingDtmfDecoderTest.frames(rnd, keys(rnd, 1 + rnd.nextInt(6)), 5 + rnd.nextInt(10), 0.01);
+			streams.add(frames);
+			expected.add(StreamingDtmfDecoderTest.reference(frames, true));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		DtmfDecoderEngine engine = new DtmfDecoderEngine(pool, true, 100);
+
+		List<DtmfDecoderEngine.Channel> channels = new ArrayList<>();
+		List<StringBuffer> sinks = new ArrayList<>();
+		for (int c = 0; c < C; c++) {
+			StringBuffer sb = new StringBuffer();
+			sinks.add(sb);
+			channels.add(engine.open("ch" + c, sb::append));
+		}
+		assertThrows(IllegalArgumentException.class, () -> engine.open("ch0", null));
+		assertEquals(C, engine.getChannels().size());
+
+		// interleave the channels, as frames would come in from the lines
+		int total = 0;
+		for (int t = 0; ; t++) {
+			boolean any = false;
+			for (int c = 0; c < C; c++) {
+				if (t < streams.get(c).size()) {
+					channels.get(c).accept(streams.get(c).get(t));
+					any = true;
+					total++;
+				} else if (t == streams.get(c).size()) {
+					channels.get(c).close();
+				}
+			}
+			if (!any)
+				break;
+		}
+
+		for (int c = 0; c < C; c++) {
+			DtmfDecoderEngine.Channel ch = channels.get(c);
+			String s = ch.getResult().get(10, TimeUnit.SECONDS);
+			assertEquals(expected.get(c), s);
+			assertEquals(s, sinks.get(c).toString());
+
+			assertEquals(streams.get(c).size(), ch.getFrames());
+			assertEquals(0, ch.getQueued());
+			assertTrue(ch.getMaxLatency() <= 100);
+			assertTrue(ch.getMaxQueueNanos() >= ch.getMeanQueueNanos());
+			assertThrows(IllegalStateException.class, () -> ch.accept(new double [9]));
+		}
+		System.out.println(channels.get(0));
+
+		assertEquals(total, engine.getFrames());
+		assertEquals(0, engine.getChannels().size());
+
+		// the decoders are reused by new channels
+		int idle = engine.getIdleDecoders();
+		assertTrue(idle > 0);
+		DtmfDecoderEngine.Channel again = engine.open("ch0", null);
+		assertEquals(idle - 1, engine.getIdleDecoders());
+		for (double[] f : streams.get(0))
+			again.accept(f);
+		assertEquals(expected.get(0), again.close().get(10, TimeUnit.SECONDS));
+
+		// a FrameSource of its own, read on the executor
+		List<double[]> frames = streams.get(1);
+		assertEquals(DtmfDecoder.decode(StreamingDtmfDecoderTest.source(frames), true),
+				engine.decode("file", StreamingDtmfDecoderTest.source(frames)).get(10, TimeUnit.SECONDS));
+
+		engine.close();
+		assertFalse(pool.isShutdown());
+		pool.shutdown();
+	}
+
+	/** frames of a stream, counting how far the reads run ahead of the decoder */
+	private static final class Source implements FrameSource {
+		final List<double[]> frames;
+		final int id;
+		final List<Integer> log;
+		DtmfDecoderEngine.Channel channel;
+		int read;
+		long ahead;
+
+		/** @param log receives the id at every frame read */
+		Source(List<double[]> frames, int id, List<Integer> log) {
+			this.frames = frames;
+			this.id = id;
+			this.log = log;
+		}
+
+		public int getFrameSize() {
+			return DtmfDecoder.states[0].length;
+		}
+
+		public boolean read(double[] buf) {
+			ahead = Math.max(ahead, read - channel.getFrames());
+			if (read == frames.size())
+				return false;
+			System.arraycopy(frames.get(read++), 0, buf, 0, buf.length);
+			log.add(id);
+			return true;
+		}
+
+		public FrameSource getSource() {
+			return null;
+		}
+	}
+
+	/** keep the (single) thread of the pool busy until the latch is counted down */
+	private static CountDownLatch block(ExecutorService pool) {
+		CountDownLatch latch = new CountDownLatch(1);
+		pool.execute(() -> {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		return latch;
+	}
+
+	@Test
+	void testBackpressure() throws Exception {
+		Random rnd = new Random(12);
+		final int Q = 16;
+
+		// one busy thread: the queue of a pushed channel fills up
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		DtmfDecoderEngine engine = new DtmfDecoderEngine(pool, true, 100, Q);
+		CountDownLatch busy = block(pool);
+
+		List<double[]> frames = StreamingDtmfDecoderTest.frames(rnd, keys(rnd, 20), 10, 0.01);
+		DtmfDecoderEngine.Channel ch = engine.open("push", null);
+		for (int i = 0; i < Q; i++)
+			assertTrue(ch.offer(frames.get(i)));
+		assertFalse(ch.offer(frames.get(Q)));
+		assertEquals(Q, ch.getQueued());
+
+		// accept waits for room, until the decoder catches up
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = Q; i < frames.size(); i++)
+					ch.accept(frames.get(i));
+				ch.close();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		Thread.sleep(50);
+		assertEquals(Q, ch.getQueued());
+		assertTrue(producer.isAlive());
+
+		busy.countDown();
+		assertEquals(StreamingDtmfDecoderTest.reference(frames, true), ch.getResult().get(10, TimeUnit.SECONDS));
+		producer.join();
+		assertEquals(Q, ch.getMaxQueued());
+		assertEquals(frames.size(), ch.getFrames());
+
+		// pulled channels read no more than a batch ahead, and take turns on the thread
+		List<Source> sources = new ArrayList<>();
+		List<Integer> log = new ArrayList<>();
+		List<CompletableFuture<String>> results = new ArrayList<>();
+		for (int c = 0; c < 3; c++)
+			sources.add(new Source(StreamingDtmfDecoderTest.frames(rnd, keys(rnd, 40), 10, 0.01), c, log));
+		busy = block(pool);
+		for (int c = 0; c < sources.size(); c++) {
+			results.add(engine.decode("pull" + c, sources.get(c)));
+			sources.get(c).channel = engine.getChannel("pull" + c);
+		}
+		busy.countDown();
+
+		for (int c = 0; c < sources.size(); c++) {
+			Source src = sources.get(c);
+			assertEquals(StreamingDtmfDecoderTest.reference(src.frames, true), results.get(c).get(10, TimeUnit.SECONDS));
+			assertEquals(src.frames.size(), src.read);
+			assertTrue(src.ahead <= 1, "read " + src.ahead + " frames ahead");
+
+			// every channel had its first batch before any had its second
+			assertTrue(log.indexOf(c) < sources.size() * DtmfDecoderEngine.BATCH);
+		}
+
+		pool.shutdown();
+	}
+
+	@Test
+	void testFailure() throws Exception {
+		final int Q = 4, D = StreamingDtmfDecoder.FRAME_SIZE;
+
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		DtmfDecoderEngine engine = new DtmfDecoderEngine(pool, true, 100, Q);
+
+		// the next channel gets a decoder that fails on frames of NaN
+		engine.recycle(new StreamingDtmfDecoder(true, 100) {
+			@Override
+			public String accept(double[] frame) {
+				if (Double.isNaN(frame[0]))
+					throw new IllegalStateException("bad frame");
+				return super.accept(frame);
+			}
+		});
+		DtmfDecoderEngine.Channel ch = engine.open("fail", null);
+
+		// frames of the wrong size are refused before they are queued
+		assertThrows(IllegalArgumentException.class, () -> ch.accept(new double [D - 1]));
+		assertThrows(IllegalArgumentException.class, () -> ch.offer(new double [D + 1]));
+		assertEquals(0, ch.getQueued());
+
+		double[] bad = new double [D];
+		Arrays.fill(bad, Double.NaN);
+
+		CountDownLatch busy = block(pool);
+		ch.accept(new double [D]);
+		ch.accept(bad);
+		for (int i = 2; i < Q; i++)
+			ch.accept(new double [D]);
+
+		// a producer waits for room on the full queue
+		Thread producer = new Thread(() -> {
+			try {
+				ch.accept(new double [D]);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		producer.start();
+		Thread.sleep(50);
+		assertTrue(producer.isAlive());
+
+		// the failing frame fails the result, and the waiting producer gets through
+		busy.countDown();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> ch.getResult().get(10, TimeUnit.SECONDS));
+		assertTrue(e.getCause() instanceof IllegalStateException);
+		producer.join(10000);
+		assertFalse(producer.isAlive());
+
+		assertEquals(1, ch.getFrames());
+		assertEquals(1, engine.getFrames());
+		assertNull(engine.getChannel("fail"));
+		assertThrows(IllegalStateException.class, () -> ch.offer(new double [D]));
+
+		pool.shutdown();
+	}
+
+	@Test
+	void testLoad() throws Exception {
+		Random rnd = new Random(3);
+		final int C = 200, files = 20;
+
+		List<String> keys = new ArrayList<>();
+		List<File> audio = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int k = 0; k < files; k++) {
+			keys.add(keys(rnd, 4));
+			audio.add(synthesize(keys.get(k), 8000));
+			expected.add(DtmfDecoder.decode(frontend(audio.get(k)), true));
+		}
+
+		try (DtmfDecoderEngine engine = new DtmfDecoderEngine(Runtime.getRuntime().availableProcessors(), true)) {
+			long t0 = System.nanoTime();
+			List<CompletableFuture<String>> results = new ArrayList<>();
+			for (int c = 0; c < C; c++)
+				results.add(engine.decode("ch" + c, frontend(audio.get(c % files))));
+
+			for (int c = 0; c < C; c++)
+				assertEquals(expected.get(c % files), results.get(c).get(60, TimeUnit.SECONDS));
+			long t1 = System.nanoTime();
+
+			System.out.println(C + " channels, " + engine.getFrames() + " frames in " + (t1 - t0) / 1000000 + " ms, "
+					+ (engine.getFrames() * 1e9 / (t1 - t0)) + " frames/s");
+		}
+
+		for (int k = 0; k < files; k++)
+			System.out.println(keys.get(k) + " decodes to " + expected.get(k));
+	}
+}
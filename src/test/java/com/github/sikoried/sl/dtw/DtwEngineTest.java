@@ -0,0 +1,160 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.jstk.util.Distances;
+import com.github.sikoried.sl.io.FrameMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DtwEngineTest {
+
+	/** the original full-matrix implementation */
+	private static double reference(double[][] xs, double[][] ys) {
+		double[][] D = new double [xs.length][ys.length];
+
+		D[0][0] = Distances.euclidean(xs[0], ys[0]);
+		for (int i = 1; i < D.length; i++)
+			D[i][0] = Distances.euclidean(xs[i], ys[0]);
+		for (int i = 1; i < D[0].length; i++)
+			D[0][i] = Distances.euclidean(xs[0], ys[i]);
+
+		for (int i = 1; i < xs.length; i++) {
+			for (int j = 1; j < ys.length; j++) {
+				double cd = D[i-1][j-1] + Distances.euclidean(xs[i], ys[j]);
+				double ch = D[i-1][j] + (j < ys.length-1 ? Distances.euclidean(xs[i], ys[j+1]) : 0);
+				double cv = D[i][j-1] + (i < xs.length-1 ? Distances.euclidean(xs[i+1], ys[j]) : 0);
+				D[i][j] = Math.min(cd, Math.min(ch, cv));
+			}
+		}
+
+		return D[xs.length-1][ys.length-1];
+	}
+
+	/** symmetric steps, full matrix with infinite cells outside [lo, hi] */
+	static double symmetric(double[][] xs, double[][] ys, int[] lo, int[] hi) {
+		double[][] D = new double [xs.length][ys.length];
+		for (int i = 0; i < xs.length; i++) {
+			for (int j = 0; j < ys.length; j++) {
+				if (j < lo[i] || j > hi[i]) {
+					D[i][j] = Double.POSITIVE_INFINITY;
+					continue;
+				}
+				double c = (i == 0 && j == 0) ? 0 : Double.POSITIVE_INFINITY;
+				if (i > 0 && j > 0)
+					c = Math.min(c, D[i-1][j-1]);
+				if (i > 0)
+					c = Math.min(c, D[i-1][j]);
+				if (j > 0)
+					c = Math.min(c, D[i][j-1]);
+				D[i][j] = c + Distances.euclidean(xs[i], ys[j]);
+			}
+		}
+		return D[xs.length-1][ys.length-1];
+	}
+
+	static double[][] frames(Random rnd, int n, int dim) {
+		double[][] xs = new double [n][dim];
+		for (double[] x : xs)
+			for (int k = 0; k < dim; k++)
+				x[k] = rnd.nextGaussian();
+		return xs;
+	}
+
+	@Test
+	void testUnconstrained() {
+		Random rnd = new Random(42);
+		DtwEngine dtw = new DtwEngine();
+
+		for (int t = 0; t < 500; t++) {
+			double[][] xs = frames(rnd, 1 + rnd.nextInt(40), 3);
+			double[][] ys = frames(rnd, 1 + rnd.nextInt(40), 3);
+			// the engine sums up the euclidean distances itself, on contiguous frames
+			assertEquals(reference(xs, ys), dtw.distance(xs, ys), 1e-9);
+			assertEquals(dtw.distance(xs, ys), Erkenner.distance(xs, ys));
+			assertEquals(dtw.distance(xs, ys), dtw.distance(FrameMatrix.of(xs), FrameMatrix.of(ys)));
+		}
+
+		assertEquals(Double.MAX_VALUE, dtw.distance(new double [0][], frames(rnd, 3, 3)));
+		assertEquals(Double.MAX_VALUE, dtw.distance(frames(rnd, 3, 3), new double [0][]));
+	}
+
+	@Test
+	void testConstrained() {
+		Random rnd = new Random(7);
+		DtwEngine full = new DtwEngine();
+		DtwEngine wide = DtwEngine.sakoeChiba(100);
+		DtwEngine itakura = DtwEngine.itakura();
+
+		for (int t = 0; t < 500; t++) {
+			int n = 1 + rnd.nextInt(60), m = 1 + rnd.nextInt(60);
+			double[][] xs = frames(rnd, n, 3);
+			double[][] ys = frames(rnd, m, 3);
+
+			double d = full.distance(xs, ys);
+
+			// a band as wide as the matrix does not constrain anything
+			assertEquals(d, wide.distance(xs, ys));
+
+			// constraints only remove paths, but there is always one within the band
+			for (int w = 0; w < 5; w++) {
+				double b = DtwEngine.sakoeChiba(w).distance(xs, ys);
+				assertTrue(b >= d);
+				assertTrue(b < Double.POSITIVE_INFINITY);
+				assertEquals(b, Erkenner.distance(xs, ys, w));
+			}
+
+			double it = itakura.distance(xs, ys);
+			if (m - 1 > 2 * (n - 1) || n - 1 > 2 * (m - 1))
+				assertEquals(Double.POSITIVE_INFINITY, it);
+			else
+				assertTrue(it >= d && it < Double.POSITIVE_INFINITY);
+		}
+	}
+
+	@Test
+	void testSymmetric() {
+		Random rnd = new Random(3);
+		for (int w : new int [] {0, 2, 100}) {
+			DtwEngine dtw = new DtwEngine(DtwEngine.Constraint.SAKOE_CHIBA, w, DtwEngine.Steps.SYMMETRIC);
+			for (int t = 0; t < 300; t++) {
+				int n = 1 + rnd.nextInt(40), m = 1 + rnd.nextInt(40);
+				double[][] xs = frames(rnd, n, 3);
+				double[][] ys = frames(rnd, m, 3);
+
+				double d = dtw.distance(xs, ys);
+				assertTrue(dtw.window(n, m));
+				assertEquals(symmetric(xs, ys, Arrays.copyOf(dtw.lo, n), Arrays.copyOf(dtw.hi, n)), d, 1e-9);
+
+				// abandons only if the distance reaches the best-so-far
+				assertEquals(d, dtw.distance(xs, ys, d + 1e-9));
+				assertEquals(Double.POSITIVE_INFINITY, dtw.distance(xs, ys, d * 0.99));
+			}
+		}
+	}
+
+	@Test
+	void testBenchmark() {
+		Random rnd = new Random(1);
+		double[][] xs = frames(rnd, 1000, 24);
+		double[][] ys = frames(rnd, 1100, 24);
+
+		DtwEngine full = new DtwEngine();
+		DtwEngine band = DtwEngine.sakoeChiba(50);
+
+		long t0 = System.nanoTime();
+		double r = reference(xs, ys);
+		long t1 = System.nanoTime();
+		double d = full.distance(xs, ys);
+		long t2 = System.nanoTime();
+		double b = band.distance(xs, ys);
+		long t3 = System.nanoTime();
+
+		assertEquals(r, d, 1e-9);
+		assertTrue(b >= d);
+		System.out.println("full matrix: " + (t1 - t0) / 1000 + " us, two rows: " + (t2 - t1) / 1000
+				+ " us, band 50: " + (t3 - t2) / 1000 + " us");
+	}
+}
@@ -0,0 +1,98 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.sl.io.FrameMatrix;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecognizerTest {
+
+	/** a random walk, so that neighbouring frames are similar as in speech features */
+	private static double[][] walk(Random rnd, int n, int dim) {
+		double[][] xs = new double [n][dim];
+		for (int i = 0; i < n; i++)
+			for (int d = 0; d < dim; d++)
+				xs[i][d] = (i > 0 ? xs[i - 1][d] : 5 * rnd.nextGaussian()) + rnd.nextGaussian();
+		return xs;
+	}
+
+	/** the template, stretched to n frames and with some noise */
+	private static double[][] utterance(Random rnd, double[][] template, int n, double noise) {
+		double[][] xs = new double [n][];
+		for (int i = 0; i < n; i++) {
+			xs[i] = template[(int) ((long) i * template.length / n)].clone();
+			for (int d = 0; d < xs[i].length; d++)
+				xs[i][d] += noise * rnd.nextGaussian();
+		}
+		return xs;
+	}
+
+	@Test
+	void testRecognize() {
+		Random rnd = new Random(5);
+		Recognizer rec = new Recognizer(5);
+		TemplateSearch search = new TemplateSearch(5);
+
+		List<double[][]> templates = new ArrayList<>();
+		for (int k = 0; k < 300; k++) {
+			double[][] t = walk(rnd, 30 + rnd.nextInt(40), 12);
+			templates.add(t);
+			rec.add("w" + k, t);
+			search.add("w" + k, t);
+		}
+
+		// twice the same template: the tie goes to the smaller index
+		rec.add("dup", templates.get(0));
+
+		List<FrameMatrix> batch = new ArrayList<>();
+		for (int q = 0; q < 2000; q++) {
+			double[][] t = templates.get(q % templates.size());
+			batch.add(FrameMatrix.of(utterance(rnd, t, t.length + rnd.nextInt(11) - 5, q % 3 == 0 ? 3.0 : 0.3)));
+		}
+
+		// sequential reference
+		long t0 = System.nanoTime();
+		List<Pair<String, Double>> expected = new ArrayList<>();
+		for (FrameMatrix xs : batch)
+			expected.add(search.nearest(xs));
+		long t1 = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (ForkJoinPool p : new ForkJoinPool [] {null, pool, ForkJoinPool.commonPool()}) {
+			rec.setPool(p);
+			long t2 = System.nanoTime();
+			List<Pair<String, Double>> results = rec.recognize(batch);
+			long t3 = System.nanoTime();
+
+			assertEquals(batch.size(), results.size());
+			for (int i = 0; i < batch.size(); i++) {
+				assertEquals(expected.get(i).getRight(), results.get(i).getRight(), 1e-9);
+				if (!expected.get(i).getLeft().equals(results.get(i).getLeft()))
+					assertEquals(expected.get(i).getRight(), search.distance(batch.get(i), FrameMatrix.of(templates.get(Integer.parseInt(results.get(i).getLeft().substring(1))))), 1e-9);
+				assertNotEquals("dup", results.get(i).getLeft());
+			}
+
+			System.out.println((p == null ? "calling thread" : "parallelism " + p.getParallelism()) + ": "
+					+ (t3 - t2) / batch.size() + " ns per query, sequential search: " + (t1 - t0) / batch.size());
+		}
+		pool.shutdown();
+
+		System.out.println("LB_Kim: " + rec.getPrunedKim() + ", LB_Keogh: " + rec.getPrunedKeogh()
+				+ ", abandoned: " + rec.getAbandoned() + ", computed: " + rec.getComputed());
+		assertTrue(rec.getComputed() < 3 * batch.size() * templates.size() / 10);
+
+		assertEquals(expected.get(0), rec.recognize(batch.get(0)));
+	}
+
+	@Test
+	void testEmpty() {
+		Recognizer rec = new Recognizer(3);
+		assertNull(rec.recognize(new double [][] {{1, 2}}));
+	}
+}
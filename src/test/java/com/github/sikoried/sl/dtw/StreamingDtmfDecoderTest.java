@@ -0,0 +1,169 @@
+package com.github.sikoried.sl.dtw;
+
+import com.github.sikoried.jstk.io.FrameSource;
+import com.github.sikoried.jstk.util.Distances;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingDtmfDecoderTest {
+
+	/** the original whole-stream decoder, with a stack of backpointers */
+	static String reference(List<double[]> frames, boolean fold) {
+		final double[][] states = DtmfDecoder.states;
+		final char[] labels = DtmfDecoder.labels;
+		final int S = states.length;
+
+		Stack<int[]> trace = new Stack<>();
+		double[] costs = new double [S];
+		trace.push(new int [S]);
+
+		for (double[] frame : frames) {
+			double[] buf = frame.clone();
+			buf[0] = buf[0] / 4640.;
+			int[] mins = new int [S];
+			for (int i = 0; i < S; i++) {
+				double d = Distances.euclidean(buf, states[i]);
+				int p = 0;
+				double v = costs[0] + d;
+				for (int j = 1; j < S; ++j) {
+					if (costs[j] + d < v) {
+						p = j;
+						v = costs[j] + d;
+					}
+				}
+				mins[i] = p;
+				costs[i] = v;
+			}
+			trace.push(mins);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		int i = 0;
+		for (int j = 1; j < S; j++)
+			if (costs[j] < costs[i])
+				i = j;
+		sb.append(labels[i]);
+		while (trace.size() > 0) {
+			i = trace.pop()[i];
+			sb.append(labels[i]);
+		}
+
+		String seq = sb.reverse().toString();
+		if (fold) {
+			sb = new StringBuilder();
+			char c = 0;
+			for (char z : seq.toCharArray()) {
+				if (c != z) {
+					sb.append(z);
+					c = z;
+				}
+			}
+			seq = sb.toString().replaceAll("" + labels[0], "");
+		}
+		return seq;
+	}
+
+	/** noisy frames of a key sequence, with silence in between */
+	static List<double[]> frames(Random rnd, String keys, int len, double noise) {
+		List<double[]> frames = new ArrayList<>();
+		for (char key : keys.toCharArray()) {
+			int s = new String(DtmfDecoder.labels).indexOf(key);
+			for (int k = 0; k < 2 * len; k++) {
+				double[] f = (k < len ? DtmfDecoder.states[s] : DtmfDecoder.states[0]).clone();
+				for (int d = 0; d < f.length; d++)
+					f[d] = Math.max(0, f[d] + noise * rnd.nextGaussian());
+				f[0] *= 4640.;
+				frames.add(f);
+			}
+		}
+		return frames;
+	}
+
+	private static String stream(StreamingDtmfDecoder dec, List<double[]> frames, List<Integer> latencies) {
+		StringBuilder sb = new StringBuilder();
+		for (double[] f : frames) {
+			sb.append(dec.accept(f));
+			latencies.add(dec.getPending());
+		}
+		return sb.append(dec.finish()).toString();
+	}
+
+	@Test
+	void testSameAsDecode() throws Exception {
+		Random rnd = new Random(4);
+		for (String keys : new String [] {"0815", "1234567890*#ABCD", "55", ""}) {
+			for (double noise : new double [] {0.01, 0.2, 0.4}) {
+				List<double[]> frames = frames(rnd, keys, 10, noise);
+				for (boolean fold : new boolean [] {false, true}) {
+					List<Integer> latencies = new ArrayList<>();
+					String s = stream(new StreamingDtmfDecoder(fold), frames, latencies);
+					assertEquals(reference(frames, fold), s);
+
+					// labels come out while streaming, not just at the end
+					if (frames.size() > 0)
+						assertTrue(latencies.stream().mapToInt(Integer::intValue).max().getAsInt() < frames.size());
+
+					// decode runs the streaming decoder
+					assertEquals(s, DtmfDecoder.decode(source(frames), fold));
+				}
+			}
+		}
+	}
+
+	@Test
+	void testBoundedLatency() {
+		Random rnd = new Random(8);
+		String keys = "0815471142";
+		List<double[]> frames = frames(rnd, keys, 10, 0.01);
+		int unbounded = 0;
+
+		// the ring bounds the latency, even if that means deciding early
+		for (int capacity : new int [] {1, 2, 3, 8, 50}) {
+			List<Integer> latencies = new ArrayList<>();
+			String s = stream(new StreamingDtmfDecoder(true, capacity), frames, latencies);
+			int max = latencies.stream().mapToInt(Integer::intValue).max().getAsInt();
+			assertTrue(max <= capacity);
+			System.out.println("capacity " + capacity + ": " + s + ", max latency " + max);
+
+			// never forced: same as decode
+			if (max < capacity)
+				assertEquals(reference(frames, true), s);
+			if (capacity == 50)
+				unbounded = max;
+		}
+		System.out.println(keys + " decodes to " + reference(frames, true));
+		assertTrue(unbounded > 1);
+
+		// raw labels: one per frame (plus the start and the final state)
+		List<Integer> latencies = new ArrayList<>();
+		assertEquals(frames.size() + 2, stream(new StreamingDtmfDecoder(false, 4), frames, latencies).length());
+	}
+
+	/** serves the given frames */
+	static FrameSource source(List<double[]> frames) {
+		return new FrameSource() {
+			int i = 0;
+
+			public int getFrameSize() {
+				return DtmfDecoder.states[0].length;
+			}
+
+			public boolean read(double[] buf) {
+				if (i == frames.size())
+					return false;
+				System.arraycopy(frames.get(i++), 0, buf, 0, buf.length);
+				return true;
+			}
+
+			public FrameSource getSource() {
+				return null;
+			}
+		};
+	}
+}
@@ -0,0 +1,88 @@
+package com.github.sikoried.sl.dtw;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TemplateSearchTest {
+
+	/** a random walk, so that neighbouring frames are similar as in speech features */
+	private static double[][] walk(Random rnd, int n, int dim) {
+		double[][] xs = new double [n][dim];
+		for (int i = 0; i < n; i++)
+			for (int d = 0; d < dim; d++)
+				xs[i][d] = (i > 0 ? xs[i - 1][d] : 5 * rnd.nextGaussian()) + rnd.nextGaussian();
+		return xs;
+	}
+
+	/** the template, stretched to n frames and with some noise */
+	private static double[][] utterance(Random rnd, double[][] template, int n) {
+		double[][] xs = new double [n][];
+		for (int i = 0; i < n; i++) {
+			xs[i] = template[(int) ((long) i * template.length / n)].clone();
+			for (int d = 0; d < xs[i].length; d++)
+				xs[i][d] += 0.3 * rnd.nextGaussian();
+		}
+		return xs;
+	}
+
+	@Test
+	void testNearest() {
+		Random rnd = new Random(11);
+		TemplateSearch search = new TemplateSearch(5);
+
+		List<double[][]> templates = new ArrayList<>();
+		for (int k = 0; k < 500; k++) {
+			double[][] t = walk(rnd, 30 + rnd.nextInt(40), 12);
+			templates.add(t);
+			search.add("w" + k, t);
+		}
+
+		long t0 = 0, t1 = 0;
+		for (int q = 0; q < 40; q++) {
+			int k = rnd.nextInt(templates.size());
+			double[][] t = templates.get(k);
+			double[][] xs = utterance(rnd, t, t.length + rnd.nextInt(11) - 5);
+
+			// brute force
+			long a = System.nanoTime();
+			String label = null;
+			double best = Double.POSITIVE_INFINITY;
+			for (int j = 0; j < templates.size(); j++) {
+				double d = search.distance(xs, templates.get(j));
+				if (d < best) {
+					best = d;
+					label = "w" + j;
+				}
+			}
+			long b = System.nanoTime();
+			Pair<String, Double> p = search.nearest(xs);
+			long c = System.nanoTime();
+			t0 += b - a;
+			t1 += c - b;
+
+			assertEquals(label, p.getLeft());
+			assertEquals(best, p.getRight(), 1e-9);
+			assertEquals("w" + k, p.getLeft());
+		}
+
+		long total = search.getPrunedKim() + search.getPrunedKeogh() + search.getAbandoned() + search.getComputed();
+		assertEquals(40 * templates.size(), total);
+		assertTrue(search.getComputed() < total / 10);
+		System.out.println("LB_Kim: " + search.getPrunedKim() + ", LB_Keogh: " + search.getPrunedKeogh()
+				+ ", abandoned: " + search.getAbandoned() + ", computed: " + search.getComputed());
+		System.out.println("brute force: " + t0 / 1000 / 40 + " us per query, cascade: " + t1 / 1000 / 40 + " us per query");
+	}
+
+	@Test
+	void testEmpty() {
+		TemplateSearch search = new TemplateSearch(3);
+		assertNull(search.nearest(new double [][] {{1, 2}}));
+		assertThrows(IllegalArgumentException.class, () -> search.add("x", new double [0][]));
+	}
+}
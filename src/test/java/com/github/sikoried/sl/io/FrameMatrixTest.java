@@ -0,0 +1,91 @@
+package com.github.sikoried.sl.io;
+
+import com.github.sikoried.jstk.io.FrameSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameMatrixTest {
+
+	/** serves the given frames */
+	private static FrameSource source(double[][] frames) {
+		return new FrameSource() {
+			int i = 0;
+
+			public int getFrameSize() {
+				return frames[0].length;
+			}
+
+			public boolean read(double[] buf) {
+				if (i == frames.length)
+					return false;
+				System.arraycopy(frames[i++], 0, buf, 0, buf.length);
+				return true;
+			}
+
+			public FrameSource getSource() {
+				return null;
+			}
+		};
+	}
+
+	private static double[][] frames(Random rnd, int n, int dim) {
+		double[][] xs = new double [n][dim];
+		for (double[] x : xs)
+			for (int d = 0; d < dim; d++)
+				x[d] = rnd.nextGaussian();
+		return xs;
+	}
+
+	@Test
+	void testRead() throws Exception {
+		Random rnd = new Random(1);
+		for (int n : new int [] {1, 255, 256, 257, 1000}) {
+			double[][] xs = frames(rnd, n, 13);
+			FrameMatrix fm = FrameMatrix.read(source(xs));
+
+			assertEquals(n, fm.size());
+			assertEquals(13, fm.getDim());
+			assertEquals(13, fm.getStride());
+			for (int i = 0; i < n; i++) {
+				assertArrayEquals(xs[i], fm.frame(i), 0.0);
+				assertEquals(xs[i][3], fm.get(i, 3));
+			}
+			assertEquals(n, fm.toList().size());
+			assertArrayEquals(xs[n - 1], fm.toArrays()[n - 1], 0.0);
+		}
+	}
+
+	@Test
+	void testStride() {
+		// two frames of 2 values, padded to 3
+		FrameMatrix fm = new FrameMatrix(new double [] {1, 2, -1, 3, 4, -1}, 2, 2, 3);
+		assertArrayEquals(new double [] {3, 4}, fm.frame(1), 0.0);
+		assertEquals(Math.sqrt(8), fm.euclidean(0, fm, 1), 1e-12);
+		assertEquals(Math.sqrt(8), fm.euclidean(0, FrameMatrix.of(fm.toArrays()), 1), 1e-12);
+
+		assertThrows(IllegalArgumentException.class, () -> new FrameMatrix(new double [4], 2, 2, 3));
+		assertThrows(IllegalArgumentException.class, () -> FrameMatrix.of(new double [][] {{1, 2}, {3}}));
+	}
+
+	@Test
+	void testEuclidean() {
+		Random rnd = new Random(2);
+		FrameMatrix a = FrameMatrix.of(frames(rnd, 10, 24));
+		FrameMatrix b = FrameMatrix.of(frames(rnd, 10, 24));
+
+		for (int i = 0; i < 10; i++) {
+			double[] x = a.frame(i), y = b.frame(9 - i);
+			double s = 0;
+			for (int d = 0; d < x.length; d++)
+				s += (x[d] - y[d]) * (x[d] - y[d]);
+			assertEquals(Math.sqrt(s), a.euclidean(i, b, 9 - i), 1e-12);
+
+			// box of the frame itself: zero; box of a point: the distance to it
+			assertEquals(0.0, a.euclidean(i, a, a, i));
+			assertEquals(a.euclidean(i, b, 9 - i), a.euclidean(i, b, b, 9 - i), 1e-12);
+		}
+	}
+}
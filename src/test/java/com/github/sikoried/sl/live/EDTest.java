@@ -5,7 +5,9 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -20,6 +22,20 @@ class EDTest {
         assertEquals(6.0, ED.edit("kühler schrank", "schüler krank", 1, 1, 1));
         assertEquals(7.0,0, ED.edit("gurken schaben", "schurkengaben", 1, 1, 1));
         assertEquals(4.0, ED.edit("nicht ausgeloggt", "licht ausgenockt", 1, 1, 1));
+
+        // unit costs run bit-parallel; compare to the DP with the same (but non-unit) cost ratio
+        Random rnd = new Random(5);
+        for (int k = 0; k < 10000; k++) {
+            String a = random(rnd, rnd.nextInt(20)), b = random(rnd, rnd.nextInt(20));
+            assertEquals(ED.edit(a, b, 2, 2, 2) / 2, ED.edit(a, b, 1, 1, 1), 1e-9);
+        }
+    }
+
+    private static String random(Random rnd, int n) {
+        char[] cs = new char [n];
+        for (int i = 0; i < n; i++)
+            cs[i] = "abcü ".charAt(rnd.nextInt(5));
+        return new String(cs);
     }
 
     @Test
@@ -37,6 +53,10 @@ class EDTest {
 
     @Test
     void edit2() {
+        // precomputed weights match the key distances
+        assertEquals(1.0, ED.weight('a', 's'), 1e-12);
+        assertEquals(1. + (1. - 1. / Math.sqrt(2)), ED.weight('a', 'w'), 1e-12);
+        assertEquals(1. + (1. - 1. / Math.sqrt(10)), ED.weight('a', 'ü'), 1e-12);
 
         System.out.println(ED.weight('a', 'q'));
         System.out.println(ED.weight('a', 'w'));
@@ -56,4 +76,67 @@ class EDTest {
         System.out.println(ED.edit2("hans", "haus", 1, 1, 1));
         System.out.println(ED.edit2("hans", "haps", 1, 1, 1));
     }
-}
\ No newline at end of file
+
+    @Test
+    void index() throws IOException, URISyntaxException {
+        List<Pair<String, Long>> vocab = ED.loadVocab();
+
+        long t0 = System.currentTimeMillis();
+        BKTree index = ED.index(vocab);
+        System.out.println("indexed " + index.size() + " words in " + (System.currentTimeMillis() - t0) + "ms");
+
+        // same results as the full scan
+        for (String s : new String [] {"about", "abuot", "shagesbeer", "qzx", "x", "ÄÖÜ"}) {
+            assertEquals(ED.suggest(vocab, s, 5), ED.suggest(index, s, 5));
+            assertEquals(ED.suggest2(vocab, s, 5), ED.suggest2(index, s, 5));
+            assertEquals(ED.suggest3(vocab, s, 5), ED.suggest3(index, s, 5));
+            ED.suggest3(index, s, 5).forEach(System.out::println);
+        }
+
+        // radius query
+        int[] ids = index.radius("abuot", 2);
+        long expected = vocab.stream().filter(p -> ED.edit("abuot", p.getLeft(), 1, 1, 1) <= 2).count();
+        assertEquals(expected, ids.length);
+
+        // the second suggest3 of each query came from the cache
+        assertTrue(index.getCache().hits() >= 6);
+
+        String[] xs = {"about", "abuot", "teh", "recieve", "shagesbeer", "sheapard"};
+        index.getCache().clear();
+        long t = System.nanoTime();
+        for (String x : xs)
+            ED.suggest3(index, x, 5);
+        System.out.println("suggest3: " + (System.nanoTime() - t) / 1000 / xs.length + " us per query");
+
+        t = System.nanoTime();
+        for (String x : xs)
+            ED.suggest3(index, x, 5);
+        System.out.println("suggest3, cached: " + (System.nanoTime() - t) / 1000 / xs.length + " us per query");
+
+        // each index has its suggestions of its own: a new one starts empty, and leaves the others be
+        BKTree other = ED.index(vocab);
+        assertEquals(0, other.getCache().size());
+        assertEquals(xs.length, index.getCache().size());
+        assertEquals(ED.suggest3(index, "abuot", 5), ED.suggest3(other, "abuot", 5));
+
+        // without a cache, the same results
+        other.setCache(null);
+        assertEquals(ED.suggest3(index, "teh", 5), ED.suggest3(other, "teh", 5));
+    }
+
+    @Test
+    void duplicates() {
+        List<Pair<String, Long>> vocab = Arrays.asList(Pair.of("haus", 3L), Pair.of("maus", 5L),
+                Pair.of("haus", 4L), Pair.of("laus", 6L));
+        BKTree index = new BKTree(vocab);
+
+        // the duplicate is merged into the first entry, with both counts
+        assertEquals(7L, index.count(0));
+        int[] ids = index.radius("haus", 0);
+        assertArrayEquals(new int [] {0}, ids);
+        assertEquals(3, index.radius("haus", 1).length);
+
+        // most frequent first
+        assertEquals("haus", ED.suggest(index, "hxus", 3).get(0).getLeft());
+    }
+}